@@ -0,0 +1,203 @@
+/**
+ *  Contains a loader which reads and validates many games saved in the
+ *  text format at once.
+ * */
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/** The BatchLoader class streams every file of a directory tree or zip
+ *  archive, parsing them in parallel on all cores into SavedGames. Each
+ *  save is checked for the grid size, legal shape characters and whether
+ *  its active piece can spawn, and a file that fails gives a Result with
+ *  an error instead of stopping the batch. Files are read as the stream
+ *  is consumed, so memory does not grow with the number of files.
+ *  */
+public class BatchLoader {
+
+  /** The Result class holds the outcome of loading one file */
+  public static class Result {
+
+    public final String name;    // path of the file, or name of the entry
+    public final SavedGame game; // the save, or null if it is invalid
+    public final String error;   // why the save is invalid, or null
+
+    private Result(String name, SavedGame game, String error) {
+      this.name  = name;
+      this.game  = game;
+      this.error = error;
+    }
+
+    public boolean isValid() {
+      return game != null;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": " + (isValid() ? "ok" : error);
+    }
+  }
+
+  /**
+   * Loads every file of a directory tree, or every entry of a zip archive
+   * @param path directory or zip archive
+   * @return parallel stream of the results, which must be closed to
+   * release the directory or archive
+   * @throws IOException if the directory or archive cannot be opened
+   ***********************************************************/
+  public static Stream<Result> load(Path path) throws IOException {
+    if (Files.isDirectory(path)) {
+      Stream<Path> files = Files.walk(path);
+      return files.filter(Files::isRegularFile)
+        .parallel()
+        .map(BatchLoader::read)
+        .onClose(files::close);
+    }
+
+    ZipFile zip = new ZipFile(path.toFile());
+    return zip.stream()
+      .filter(entry -> !entry.isDirectory())
+      .parallel()
+      .map(entry -> read(zip, entry))
+      .onClose(() -> {
+        try {
+          zip.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+  }
+
+  /**
+   * Loads one file of a directory
+   * @param file file to load
+   * @return result of the file
+   ***********************************************************/
+  private static Result read(Path file) {
+    try {
+      return parse(file.toString(), Files.readAllBytes(file));
+    } catch (IOException e) {
+      return new Result(file.toString(), null, "cannot be read: " + e);
+    }
+  }
+
+  /**
+   * Loads one entry of a zip archive
+   * @param zip archive holding the entry
+   * @param entry entry to load
+   * @return result of the entry
+   ***********************************************************/
+  private static Result read(ZipFile zip, ZipEntry entry) {
+    try (InputStream input = zip.getInputStream(entry)) {
+      return parse(entry.getName(), input.readAllBytes());
+    } catch (IOException e) {
+      return new Result(entry.getName(), null, "cannot be read: " + e);
+    }
+  }
+
+  /**
+   * Parses and validates a save in the format written by
+   * Tetris.outputToFile: the lines cleared, the active and next shapes,
+   * then one line per row of the grid, which gives the size of the grid
+   * @param name name reported in the result
+   * @param bytes contents of the save
+   * @return result of the save
+   ***********************************************************/
+  static Result parse(String name, byte[] bytes) {
+    String[] lines = new String(bytes, StandardCharsets.ISO_8859_1)
+      .split("\r?\n", -1);
+    int count = lines.length;
+    while (count > 0 && lines[count - 1].isEmpty())
+      count--;
+    int rows = count - 3;
+    if (rows < Tetris.MIN_ROWS || rows > Tetris.MAX_ROWS)
+      return new Result(name, null, "has " + rows + " rows, expected "
+          + Tetris.MIN_ROWS + " to " + Tetris.MAX_ROWS);
+    int cols = lines[3].length();
+    if (cols < Tetris.MIN_COLS || cols > Tetris.MAX_COLS)
+      return new Result(name, null, "line 4: has " + cols
+          + " columns, expected " + Tetris.MIN_COLS + " to "
+          + Tetris.MAX_COLS);
+
+    int linesCleared;
+    try {
+      linesCleared = Integer.parseInt(lines[0].trim());
+    } catch (NumberFormatException e) {
+      return new Result(name, null, "line 1: lines cleared is not a number");
+    }
+    if (linesCleared < 0)
+      return new Result(name, null, "line 1: lines cleared is negative");
+
+    for (int i = 1 ; i <= 2 ; i++)
+      if (lines[i].length() != 1 || Piece.shapeIndex(lines[i].charAt(0)) < 0)
+        return new Result(name, null, "line " + (i + 1)
+            + ": not a shape: '" + lines[i] + "'");
+    char activeShape = lines[1].charAt(0);
+    char nextShape   = lines[2].charAt(0);
+
+    byte[] cells = new byte[rows * cols];
+    long[] board = new long[rows];
+    for (int i = 0 ; i < rows ; i++) {
+      String row = lines[3 + i];
+      if (row.length() != cols)
+        return new Result(name, null, "line " + (4 + i) + ": has "
+            + row.length() + " columns, expected " + cols);
+      for (int j = 0 ; j < cols ; j++) {
+        char cell = row.charAt(j);
+        if (cell != ' ') {
+          if (Piece.shapeIndex(cell) < 0)
+            return new Result(name, null, "line " + (4 + i)
+                + ": not a shape: '" + cell + "'");
+          board[i] |= 1L << j;
+        }
+        cells[i * cols + j] = (byte) cell;
+      }
+    }
+
+    Piece spawn = new Piece(activeShape, cols);
+    if (Tetris.hasConflict(board, Tetris.fullRow(cols), spawn.type,
+          spawn.rowOffset, spawn.colOffset))
+      return new Result(name, null, "active piece " + activeShape
+          + " cannot spawn");
+
+    return new Result(name,
+        new SavedGame(linesCleared, activeShape, nextShape, rows, cols,
+          cells), null);
+  }
+
+  /**
+   * loads a directory or zip archive of saves, printing the error of
+   * every invalid save and a summary
+   * @param args: the directory or zip archive
+   */
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("Usage: java BatchLoader <directory | archive.zip>");
+      return;
+    }
+    long start = System.nanoTime();
+    try (Stream<Result> results = load(Paths.get(args[0]))) {
+      long[] counts = results
+        .peek(result -> {
+          if (!result.isValid())
+            System.err.println(result);
+        })
+        .collect(() -> new long[2],
+            (sum, result) -> sum[result.isValid() ? 0 : 1]++,
+            (sum, other) -> {
+              sum[0] += other[0];
+              sum[1] += other[1];
+            });
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(counts[0] + " valid, " + counts[1] + " invalid in "
+          + String.format("%.3f", seconds) + " s");
+      System.out.println(String.format("%.0f",
+            (counts[0] + counts[1]) / seconds) + " files per second");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
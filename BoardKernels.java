@@ -0,0 +1,124 @@
+/**
+ *  Contains the loops over many rows of a bitboard that the engine and
+ *  the bot run most, in scalar code, and the choice of the fastest
+ *  implementation available.
+ * */
+
+/** The BoardKernels class scans the rows of a bitboard, one long per row
+ *  with bit j for column j, for full rows, for the row a piece drops to
+ *  and for the number of occupied cells. These are the only loops whose
+ *  length grows with the height of the grid, so they are where tall and
+ *  wide boards spend their time.
+ *
+ *  This class runs them one row at a time. VectorKernels, kept apart in
+ *  vector/ because it needs the jdk.incubator.vector module to compile
+ *  and run, overrides them to test a whole vector of rows per
+ *  instruction. DEFAULT is VectorKernels when its class is on the class
+ *  path and the module is added to the JVM, and this class otherwise, or
+ *  when the tetris.kernels system property is set to scalar. Both give
+ *  the same results, so games and bots play the same way with either.
+ *  */
+public class BoardKernels {
+
+  // kernels used by the engine and the bot
+  public static final BoardKernels DEFAULT = load();
+
+  /**
+   * Picks the kernels used by DEFAULT
+   * @return VectorKernels if available and not turned off, else scalar
+   ***********************************************************/
+  private static BoardKernels load() {
+    if ("scalar".equals(System.getProperty("tetris.kernels")))
+      return new BoardKernels();
+    BoardKernels vector = vector();
+    return vector == null ? new BoardKernels() : vector;
+  }
+
+  /**
+   * Loads the Vector API kernels
+   * @return VectorKernels, or null if its class or the
+   * jdk.incubator.vector module is missing
+   ***********************************************************/
+  public static BoardKernels vector() {
+    try {
+      return (BoardKernels) Class.forName("VectorKernels")
+        .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the name of the kernels, scalar or the vector shape
+   * @return name of the implementation
+   ***********************************************************/
+  public String name() {
+    return "scalar";
+  }
+
+  /**
+   * Finds the lowest full row between two rows
+   * @param board bitboard to scan
+   * @param first highest row to check
+   * @param last lowest row to check
+   * @param fullRow bitmask of a full row
+   * @return the lowest full row, or -1 if none of them is full
+   ***********************************************************/
+  public int lastFullRow(long[] board, int first, int last, long fullRow) {
+    for (int i = last ; i >= first ; i--)
+      if (board[i] == fullRow)
+        return i;
+    return -1;
+  }
+
+  /**
+   * Finds the lowest row a piece reaches by moving down without
+   * conflict, the floor of the board being its last row. The piece must
+   * fit where it is, so only the cells below it are tested
+   * @param board bitboard the piece is on
+   * @param type shape and rotation of the piece
+   * @param rowOffset row of the piece
+   * @param colOffset column of the piece
+   * @return row offset of the piece after a drop
+   ***********************************************************/
+  public int dropRow(long[] board, PieceType type, int rowOffset,
+      int colOffset) {
+    int last = board.length - 1 - type.maxRow;
+    for (int row = rowOffset + 1 ; row <= last ; row++)
+      if (collides(board, type, row, colOffset))
+        return row - 1;
+    return Math.max(rowOffset, last);
+  }
+
+  /**
+   * Counts the occupied cells between two rows
+   * @param board bitboard to count
+   * @param from first row to count
+   * @param to row after the last row to count
+   * @return number of occupied cells
+   ***********************************************************/
+  public int cellCount(long[] board, int from, int to) {
+    int cells = 0;
+    for (int i = from ; i < to ; i++)
+      cells += Long.bitCount(board[i]);
+    return cells;
+  }
+
+  /**
+   * Tests a piece against the rows of the board it covers, which must
+   * all be on the board, ignoring the walls
+   * @param board bitboard the piece is on
+   * @param type shape and rotation of the piece
+   * @param rowOffset row of the piece
+   * @param colOffset column of the piece
+   * @return true if a cell of the piece is occupied
+   ***********************************************************/
+  static boolean collides(long[] board, PieceType type, int rowOffset,
+      int colOffset) {
+    for (int i = type.minRow ; i <= type.maxRow ; i++)
+      if ((board[rowOffset + i]
+            & Tetris.shiftRow(type.rowMask(i), colOffset)) != 0)
+        return true;
+    return false;
+  }
+}
@@ -0,0 +1,531 @@
+/**
+ *  Contains a computer player for Tetris which searches all placements of
+ *  the active piece and plays the best one through the Tetris API.
+ * */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** The Bot class is a MovePolicy which, for every piece, enumerates each
+ *  final placement the piece can reach by rotating near its spawn 
+ *  position, shifting left or right and dropping. Every resulting board is scored
+ *  with a weighted sum of its holes, aggregate height, bumpiness and the
+ *  lines cleared. With lookahead the score of a placement is the best
+ *  score reachable by also placing the next piece, and with hold the
+ *  placements of the piece that hold() would make active are considered
+ *  too. Candidates are scored in parallel on a fork/join pool.
+ *
+ *  The best score of the next piece on a board is kept in a
+ *  TranspositionTable under the Zobrist hash of the board and the piece,
+ *  so a board reached by several candidates is only searched once. The
+ *  table only depends on the boards, not on the game they came from, so
+ *  one Bot can still play any number of games at the same time.
+ *  */
+public class Bot implements MovePolicy {
+
+  // weights of the heuristic, found by tuning against a 20x10 board
+  public static final double HEIGHT_WEIGHT    = -0.510066;
+  public static final double LINES_WEIGHT     =  0.760666;
+  public static final double HOLES_WEIGHT     = -0.35663;
+  public static final double BUMPINESS_WEIGHT = -0.184483;
+
+  // number of candidates scored by one task before it stops splitting
+  private static final int CANDIDATES_PER_TASK = 4;
+
+  // empty rows searched above the stack, enough for two pieces to be
+  // placed on top of it with the spawn area of the second still empty
+  private static final int WINDOW_MARGIN = 16;
+
+  // rows at the top of the grid in which a piece can be blocked by the
+  // top when it rotates, a piece in them keeps its row in the window
+  private static final int TOP_ROWS = 4;
+
+  // entries of the table of follow-up scores, 16 bytes each
+  private static final int TABLE_SIZE = 1 << 16;
+
+  // separates the keys of the piece and of the size of the board from
+  // those of the cells in the hash of a follow-up
+  private static final long PIECE_SALT = 0x632be59bd9b4e019L;
+  private static final long SIZE_SALT  = 0x7f4a7c159e3779b9L;
+
+  /** The Placement class describes one way to play the active piece */
+  public static class Placement {
+
+    public final boolean hold;     // true if hold() is called first
+    public final int drops;        // moves down before rotating
+    public final PieceType type;   // shape and rotation it lands in
+    public final int rotations;    // calls to rotate() needed
+    public final int shift;        // columns to move, negative for left
+    public final int rowOffset;    // row of the board searched the
+                                   // piece lands on
+    public final int colOffset;    // column the piece lands on
+    double score;                  // set when the placement is scored
+
+    public Placement(boolean hold, int drops, Piece piece, int rotations,
+        int shift, int rowOffset) {
+      this.hold       = hold;
+      this.drops      = drops;
+      this.type       = piece.type;
+      this.rotations  = rotations;
+      this.shift      = shift;
+      this.rowOffset  = rowOffset;
+      this.colOffset  = piece.colOffset + shift;
+    }
+
+    public double getScore() {
+      return score;
+    }
+  }
+
+  public final double heightWeight;
+  public final double linesWeight;
+  public final double holesWeight;
+  public final double bumpinessWeight;
+
+  public final boolean lookahead; // true to also place the next piece
+  public final boolean useHold;   // true to consider holding the piece
+  public final boolean parallel;  // true to score candidates in parallel
+
+  // best score of a piece placed on a board, shared by all threads
+  private final TranspositionTable table =
+    new TranspositionTable(TABLE_SIZE);
+
+  //Default no-argument constructor, plays with lookahead and hold
+  public Bot() {
+    this(HEIGHT_WEIGHT, LINES_WEIGHT, HOLES_WEIGHT, BUMPINESS_WEIGHT,
+        true, true, true);
+  }
+
+  //Constructor which takes in the weights of the heuristic and options
+  public Bot(double heightWeight, double linesWeight, double holesWeight,
+      double bumpinessWeight, boolean lookahead, boolean useHold,
+      boolean parallel) {
+    this.heightWeight    = heightWeight;
+    this.linesWeight     = linesWeight;
+    this.holesWeight     = holesWeight;
+    this.bumpinessWeight = bumpinessWeight;
+    this.lookahead       = lookahead;
+    this.useHold         = useHold;
+    this.parallel        = parallel;
+  }
+
+  /**
+   * Plays the best placement of the active piece
+   * @param tetris game to play
+   ***********************************************************/
+  @Override
+  public void play(Tetris tetris) {
+    Placement best = bestPlacement(tetris);
+    if (best == null) {
+      // no placement at all, the game is about to end
+      tetris.drop();
+      tetris.move(Direction.DOWN);
+      return;
+    }
+
+    if (best.hold)
+      tetris.hold();
+    for (int i = 0 ; i < best.drops ; i++)
+      tetris.move(Direction.DOWN);
+    for (int i = 0 ; i < best.rotations ; i++)
+      tetris.rotate();
+    for (int i = 0 ; i < Math.abs(best.shift) ; i++)
+      tetris.move(best.shift < 0 ? Direction.LEFT : Direction.RIGHT);
+    tetris.drop();
+    tetris.move(Direction.DOWN);
+  }
+
+  /**
+   * Finds the placement with the best score in the current game
+   * @param tetris game to search, it is not changed
+   * @return best placement, or null if the piece cannot be placed
+   ***********************************************************/
+  public Placement bestPlacement(Tetris tetris) {
+    // only the rows from WINDOW_MARGIN rows above the stack down are
+    // searched, and those above the active piece if it fell below the top
+    // rows. When rows are left out, a piece at the top of the grid stays
+    // at the top of the window, and a piece below the top rows keeps its
+    // distance to the stack, so the placements and their scores are the
+    // same, and the search costs the height of the stack whatever the
+    // size of the grid
+    Piece active = new Piece(tetris.activePiece);
+    int stackTop = tetris.stackTop();
+    int window = Math.max(0, (active.rowOffset < TOP_ROWS ? stackTop
+          : Math.min(stackTop, active.rowOffset)) - WINDOW_MARGIN);
+    long[] board = Arrays.copyOfRange(tetris.board, window, tetris.rows);
+    int top = stackTop - window;
+    int cols = tetris.cols;
+    if (active.rowOffset >= TOP_ROWS)
+      active.rowOffset -= window;
+
+    // pieces that may follow each option, null without lookahead
+    List<Placement> candidates = placements(board, cols, active, false);
+    Piece[] following = { tetris.nextPiece };
+    Piece[] heldFollowing = following;
+
+    if (useHold && !tetris.usedHold) {
+      // hold() makes the stored piece active, or the next piece if
+      // nothing is stored yet, in which case the piece after it may be
+      // any of the shapes
+      Piece held = tetris.storedPiece != null
+        ? new Piece(tetris.storedPiece.type.shape, cols)
+        : new Piece(tetris.nextPiece.type.shape, cols);
+      if (tetris.storedPiece == null) {
+        heldFollowing = new Piece[Piece.possibleShapes.length];
+        for (int i = 0 ; i < heldFollowing.length ; i++)
+          heldFollowing[i] = new Piece(Piece.possibleShapes[i], cols);
+      }
+      candidates.addAll(placements(board, cols, held, true));
+    }
+    if (candidates.isEmpty())
+      return null;
+
+    // every candidate is scored at the same depth, so their scores can
+    // be compared
+    Placement[] array = candidates.toArray(new Placement[0]);
+    Piece[][] next = new Piece[array.length][];
+    for (int i = 0 ; i < array.length ; i++)
+      next[i] = !lookahead ? null : array[i].hold ? heldFollowing : following;
+
+    ScoreTask task = new ScoreTask(board, top, cols, hash(board, top, cols),
+        array, next, 0, array.length);
+    if (parallel)
+      ForkJoinPool.commonPool().invoke(task);
+    else
+      task.compute();
+
+    Placement best = array[0];
+    for (Placement placement : array)
+      if (placement.score > best.score)
+        best = placement;
+    return best;
+  }
+
+  /** The ScoreTask class scores a range of candidates, splitting the
+   *  range in half until it is small enough to score directly */
+  private class ScoreTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] board;
+    private final int top;
+    private final int cols;
+    private final long key;
+    private final Placement[] candidates;
+    private final Piece[][] next;
+    private final int from;
+    private final int to;
+
+    ScoreTask(long[] board, int top, int cols, long key,
+        Placement[] candidates, Piece[][] next, int from, int to) {
+      this.board      = board;
+      this.top        = top;
+      this.key        = key;
+      this.cols       = cols;
+      this.candidates = candidates;
+      this.next       = next;
+      this.from       = from;
+      this.to         = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > CANDIDATES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ScoreTask(board, top, cols, key, candidates, next,
+              from, middle),
+            new ScoreTask(board, top, cols, key, candidates, next,
+              middle, to));
+        return;
+      }
+      for (int i = from ; i < to ; i++)
+        candidates[i].score = score(board, top, cols, key, candidates[i],
+            next[i]);
+    }
+  }
+
+  /**
+   * Scores the board left by a placement, and by the best placement of
+   * the following piece if it is known. When several pieces may follow,
+   * the score is the average over them of their best placement
+   * @param board board before the placement
+   * @param top highest row of the board that may be occupied
+   * @param cols number of columns of the board
+   * @param key hash of the board from hash()
+   * @param placement placement to score
+   * @param following pieces that may be placed after it, or null
+   * @return score of the placement, higher is better
+   ***********************************************************/
+  private double score(long[] board, int top, int cols, long key,
+      Placement placement, Piece[] following) {
+    long[] after = board.clone();
+    int lines = place(after, top, cols, placement);
+    int afterTop = landedTop(top, placement, lines);
+
+    if (following == null)
+      return evaluate(after, afterTop, cols, lines);
+
+    // the placed cells are added to the hash, unless rows moved
+    long afterKey = key;
+    PieceType type = placement.type;
+    if (lines == 0)
+      for (int i = type.minRow ; i <= type.maxRow ; i++)
+        afterKey ^= Zobrist.row(placement.rowOffset + i,
+            Tetris.shiftRow(type.rowMask(i), placement.colOffset));
+    else
+      afterKey = hash(after, afterTop, cols);
+
+    double total = 0;
+    for (Piece piece : following) {
+      double best = followUp(after, afterTop, cols, afterKey, piece);
+      // the following piece cannot be placed, so this placement loses
+      total += (best == Double.NEGATIVE_INFINITY ? -Double.MAX_VALUE / 2
+          : best + linesWeight * lines) / following.length;
+    }
+    return total;
+  }
+
+  /**
+   * Finds the best score of a piece placed on a board, not counting the
+   * lines cleared to reach the board, looking it up in the table first.
+   * The score is rounded to a float whether it is searched or looked up,
+   * so the Bot plays the same either way
+   * @param board board to place the piece on
+   * @param top highest row of the board that may be occupied
+   * @param cols number of columns of the board
+   * @param key hash of the board from hash()
+   * @param piece piece at its spawn position
+   * @return best score, or negative infinity if the piece cannot be
+   * placed
+   ***********************************************************/
+  private double followUp(long[] board, int top, int cols, long key,
+      Piece piece) {
+    key ^= Zobrist.mix(piece.type.shapeIndex + PIECE_SALT);
+    long data = table.probe(key);
+    if (data != TranspositionTable.MISS)
+      return TranspositionTable.score(data);
+
+    float best = Float.NEGATIVE_INFINITY;
+    int move = 0;
+    List<Placement> placements = placements(board, cols, piece, false);
+    for (int i = 0 ; i < placements.size() ; i++) {
+      Placement second = placements.get(i);
+      long[] last = board.clone();
+      int more = place(last, top, cols, second);
+      float value = (float) evaluate(last, landedTop(top, second, more),
+          cols, more);
+      if (value > best) {
+        best = value;
+        move = i;
+      }
+    }
+    table.store(key, 1, best, move);
+    return best;
+  }
+
+  /**
+   * Returns the Zobrist hash of a board searched by the Bot, which also
+   * covers its size since a board is scored by the height of its rows
+   * @param board board to hash
+   * @param top highest row of the board that may be occupied
+   * @param cols number of columns of the board
+   * @return hash of the occupied cells and the size of the board
+   ***********************************************************/
+  private static long hash(long[] board, int top, int cols) {
+    long key = Zobrist.mix(((long) board.length << 32 | cols) + SIZE_SALT);
+    for (int i = top ; i < board.length ; i++)
+      key ^= Zobrist.row(i, board[i]);
+    return key;
+  }
+
+  /**
+   * Lists every distinct placement a piece can reach from its spawn
+   * position by moving down a few rows if a rotation is blocked by the 
+   * top of the grid, rotating, shifting, and finally dropping
+   * @param board board to place the piece on
+   * @param cols number of columns of the board
+   * @param spawn piece at its spawn position
+   * @param hold true if the piece is made active by hold()
+   * @return all reachable placements
+   ***********************************************************/
+  public static List<Placement> placements(long[] board, int cols,
+      Piece spawn, boolean hold) {
+    long fullRow = Tetris.fullRow(cols);
+    List<Placement> placements = new ArrayList<>();
+    List<long[]> shapes = new ArrayList<>();
+
+    for (int rotations = 0 ; rotations < 4 ; rotations++) {
+      Piece piece = rotated(board, fullRow, spawn, rotations);
+      if (piece == null)
+        continue;
+
+      // skips rotation states with the same tiles as an earlier one
+      long[] masks = piece.type.rowMasks();
+      boolean seen = false;
+      for (long[] shape : shapes)
+        seen |= Arrays.equals(shape, masks);
+      if (seen)
+        continue;
+      shapes.add(masks);
+
+      int drops = piece.rowOffset - spawn.rowOffset;
+      for (int direction = -1 ; direction <= 1 ; direction += 2) {
+        // shift 0 is only added when moving left
+        for (int shift = direction < 0 ? 0 : 1 ; ; shift++) {
+          int col = piece.colOffset + direction * shift;
+          if (Tetris.hasConflict(board, fullRow, piece.type,
+                piece.rowOffset, col))
+            break;
+          int row = BoardKernels.DEFAULT.dropRow(board, piece.type,
+              piece.rowOffset, col);
+          placements.add(new Placement(hold, drops, piece, rotations,
+                direction * shift, row));
+        }
+      }
+    }
+    return placements;
+  }
+
+  /**
+   * Rotates a copy of a piece, moving it down first as few rows as
+   * needed for every rotation to be free of conflict
+   * @param board board the piece is on
+   * @param fullRow bitmask of a full row of the board
+   * @param spawn piece at its spawn position
+   * @param rotations number of calls to rotate()
+   * @return the rotated copy, or null if it cannot be rotated
+   ***********************************************************/
+  private static Piece rotated(long[] board, long fullRow, Piece spawn,
+      int rotations) {
+    Piece moved = new Piece(spawn);
+    for (int drops = 0 ; drops < 3 ; drops++) {
+      if (drops > 0)
+        moved.rowOffset++;
+      if (Tetris.hasConflict(board, fullRow, moved.type,
+            moved.rowOffset, moved.colOffset))
+        return null;
+
+      Piece piece = new Piece(moved);
+      int i = 0;
+      while (i < rotations && !Tetris.hasConflict(board, fullRow,
+            piece.nextType(), piece.rowOffset, piece.colOffset)) {
+        piece.rotate();
+        i++;
+      }
+      if (i == rotations)
+        return piece;
+    }
+    return null;
+  }
+
+  /**
+   * Consolidates a placement onto a board and clears full rows. Only the
+   * rows of the piece can become full, so nothing below the lowest full
+   * one moves, and nothing above the stack is read
+   * @param board board to change
+   * @param top highest row of the board that may be occupied
+   * @param cols number of columns of the board
+   * @param placement placement of a piece on the board
+   * @return number of rows cleared
+   ***********************************************************/
+  static int place(long[] board, int top, int cols, Placement placement) {
+    long fullRow = Tetris.fullRow(cols);
+    PieceType type = placement.type;
+    int bottom = -1;
+    for (int i = type.minRow ; i <= type.maxRow ; i++) {
+      int row = placement.rowOffset + i;
+      board[row] |= Tetris.shiftRow(type.rowMask(i), placement.colOffset);
+      if (board[row] == fullRow)
+        bottom = row;
+    }
+    if (bottom < 0)
+      return 0;
+
+    top = Math.min(top, placement.rowOffset + type.minRow);
+    int write = bottom;
+    for (int read = bottom ; read >= top ; read--)
+      if (board[read] != fullRow)
+        board[write--] = board[read];
+    int cleared = write - top + 1;
+    while (write >= top)
+      board[write--] = 0;
+    return cleared;
+  }
+
+  /**
+   * Returns the highest row that may be occupied after a placement
+   * @param top highest row that may be occupied before it
+   * @param placement placement of a piece
+   * @param cleared number of rows the placement cleared
+   * @return highest row that may be occupied, every row above it empty
+   ***********************************************************/
+  private static int landedTop(int top, Placement placement, int cleared) {
+    return Math.min(top, placement.rowOffset + placement.type.minRow)
+      + cleared;
+  }
+
+  /**
+   * Scores a board with the weighted heuristic
+   * @param board board to score
+   * @param top highest row of the board that may be occupied, every row
+   * above it being empty
+   * @param cols number of columns of the board
+   * @param lines number of lines cleared to reach the board
+   * @return score of the board, higher is better
+   ***********************************************************/
+  public double evaluate(long[] board, int top, int cols, int lines) {
+    int[] heights = new int[cols];
+    long fullRow = Tetris.fullRow(cols);
+    long covered = 0;
+    int stack_top = board.length;
+    int aggregate = 0;
+
+    // starts at the top of the stack and stops once every column has
+    // its top
+    for (int i = top ; i < board.length && covered != fullRow ; i++) {
+      long found = board[i] & ~covered;
+      if (covered == 0 && found != 0)
+        stack_top = i;
+      while (found != 0) {
+        heights[Long.numberOfTrailingZeros(found)] = board.length - i;
+        aggregate += board.length - i;
+        found &= found - 1;
+      }
+      covered |= board[i];
+    }
+    // every cell under the top of its column is occupied or a hole
+    int holes = aggregate - BoardKernels.DEFAULT.cellCount(board, stack_top,
+        board.length);
+
+    int bumpiness = 0;
+    for (int j = 1 ; j < heights.length ; j++)
+      bumpiness += Math.abs(heights[j] - heights[j - 1]);
+    return heightWeight * aggregate + linesWeight * lines
+      + holesWeight * holes + bumpinessWeight * bumpiness;
+  }
+
+  /**
+   * plays a run of games with the default bot and prints how fast it
+   * placed pieces
+   * @param args: number of games, seed and piece limit per game, all
+   * optional
+   */
+  public static void main(String[] args) {
+    int games      = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    long seed      = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    long maxPieces = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+
+    long start = System.nanoTime();
+    Simulator.Result[] results = Simulator.run(games, seed, new Bot(),
+        maxPieces);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long pieces = 0;
+    for (Simulator.Result result : results) {
+      System.out.println(result);
+      pieces += result.piecesPlaced;
+    }
+    System.out.println(String.format("%.0f", pieces / seconds)
+        + " placements per second");
+  }
+}
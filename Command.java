@@ -0,0 +1,39 @@
+/**
+ * contains an enum defining every command that changes a game of Tetris
+ */
+
+/**
+ * enum Command
+ * defines the commands a player or the game itself can give, each with 
+ * the key typed for it in the text version of the game. TICK is the move
+ * down made by gravity and has no key. The ordinal of a command is its 
+ * code in journals, so new commands must only be added at the end
+ */
+public enum Command{
+  LEFT('a'),
+  RIGHT('d'),
+  DOWN('s'),
+  ROTATE('w'),
+  DROP(' '),
+  HOLD('z'),
+  TICK('\0');
+
+  // key typed for the command
+  public final char key;
+
+  Command(char key){
+    this.key = key;
+  }
+
+  /**
+   * Returns the command typed with a key
+   * @param key key typed by the player
+   * @return command of the key, or null if the key has no command
+   */
+  public static Command fromKey(char key){
+    for (Command command : values())
+      if (command.key == key && command != TICK)
+        return command;
+    return null;
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ *  Contains a queue which carries commands from any number of input
+ *  threads to the one thread which plays the game.
+ * */
+
+import java.util.concurrent.atomic.*;
+
+/** The CommandQueue class is an unbounded multi-producer single-consumer
+ *  queue of Commands, after Dmitry Vyukov's intrusive MPSC node queue.
+ *  Offering a command takes one atomic swap and never waits, whatever the
+ *  number of threads offering at once, and polling takes no atomic
+ *  operation at all. Input sources such as the keyboard, the gravity
+ *  timer and network readers offer commands, and only the game thread
+ *  polls them, so the game is never touched by two threads at once.
+ *
+ *  The queue is a linked list from the oldest node, a consumed node kept
+ *  as a stub, to the newest node. A producer swaps its node in as the
+ *  newest and then links the previous newest node to it, so for a moment
+ *  a node may be offered but not yet reachable; poll then returns null
+ *  and the command is taken by the next poll.
+ *  */
+public class CommandQueue {
+
+  private static final class Node {
+    Command command;
+    volatile Node next;
+
+    Node(Command command) {
+      this.command = command;
+    }
+  }
+
+  // newest node, swapped by the producers
+  private final AtomicReference<Node> newest;
+
+  // last consumed node, only read and written by the consumer
+  private Node oldest;
+
+  //Constructor which creates an empty queue
+  public CommandQueue() {
+    oldest = new Node(null);
+    newest = new AtomicReference<>(oldest);
+  }
+
+  /**
+   * Adds a command, called by any thread
+   * @param command command to add
+   ***********************************************************/
+  public void offer(Command command) {
+    Node node = new Node(command);
+    newest.getAndSet(node).next = node;
+  }
+
+  /**
+   * Takes the oldest command, called by the consumer only
+   * @return the command, or null if there is none
+   ***********************************************************/
+  public Command poll() {
+    Node next = oldest.next;
+    if (next == null)
+      return null;
+    Command command = next.command;
+    next.command = null;
+    oldest = next;
+    return command;
+  }
+
+  /**
+   * Returns whether there is no command to take, called by the consumer
+   * only
+   * @return true if poll would return null
+   ***********************************************************/
+  public boolean isEmpty() {
+    return oldest.next == null;
+  }
+
+  /**
+   * Applies every command in the queue to a game, called by the consumer
+   * only. Gravity is coalesced: only the first TICK of a batch is applied,
+   * since ticks queued behind it were only delayed by the game thread
+   * falling behind. Moves down pressed by the player are all applied.
+   * Commands reaching a finished game are dropped.
+   * @param tetris game to apply the commands to
+   * @return number of commands applied
+   ***********************************************************/
+  public int drain(Tetris tetris) {
+    int applied = 0;
+    boolean ticked = false;
+    Command command;
+    while ((command = poll()) != null) {
+      if (tetris.isGameover || (command == Command.TICK && ticked))
+        continue;
+      ticked |= command == Command.TICK;
+      tetris.apply(command);
+      applied++;
+    }
+    return applied;
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ *  Contains an immutable view of a game of Tetris, published by the game
+ *  after every command for other threads to read.
+ * */
+
+/** The GameSnapshot class holds the state of a game after one command.
+ *  A game publishes a new snapshot after every command through a single
+ *  volatile field, so renderers, spectators and bots on other threads get
+ *  a consistent state with one read and no lock.
+ *
+ *  Snapshots share the rows of the grid with the game and with each
+ *  other. The game never writes to a row a snapshot holds; it copies the
+ *  row first. The rows and their bitboard are held in chunks of
+ *  CHUNK_ROWS rows, and a snapshot taken after a placement copies only
+ *  the chunks the placement wrote to and shares every other chunk with
+ *  the snapshot before it. It still holds one reference per chunk of the
+ *  stack, and a line clear moves every row above the cleared lines, so
+ *  it writes to every chunk from the top of the stack down to them.
+ *  Between two placements, snapshots share all of the chunks and only
+ *  hold the pieces anew. The empty chunks above the stack are left out,
+ *  so a snapshot of a tall grid costs the height of its stack rather
+ *  than of the grid.
+ *  */
+public final class GameSnapshot {
+
+  public final int rows; // number of rows of the grid
+  public final int cols; // number of columns of the grid
+
+  // number of rows in a chunk of the grid
+  static final int CHUNK_ROWS = 32;
+
+  // highest row of the stack, every row above it being empty
+  private final int top;
+
+  // chunk of the grid held by stack[0], the chunk of the top row
+  private final int first;
+
+  // chunks of rows of the grid from the first down, shared and never
+  // written to
+  private final char[][][] stack;
+
+  // bitboard of the chunks from the first down, shared and never
+  // written to
+  private final long[][] board;
+
+  public final int linesCleared;   // how many lines cleared so far
+  public final long piecesPlaced;  // how many pieces consolidated so far
+  public final boolean isGameover; // true if the game is over
+  public final boolean usedHold;   // true if hold was used for this piece
+
+  // active piece
+  public final PieceType activeType;
+  public final int rowOffset;
+  public final int colOffset;
+  public final boolean rotateClockwiseNext;
+
+  // row offset of the active piece after a drop
+  private final int landingRow;
+
+  public final char nextShape;   // shape of the next piece
+  public final char storedShape; // shape of the stored piece, ' ' if none
+
+  public final long seed;            // seed the randomizer started from
+  public final long randomizerState; // randomizer after the next piece
+  public final long hash;            // Zobrist hash of the game
+
+  //Constructor which takes in a game and the chunks of its stack and
+  //their bitboard to share, called by the game when it publishes
+  GameSnapshot(Tetris tetris, int top, char[][][] stack, long[][] board) {
+    this.rows    = tetris.rows;
+    this.cols    = tetris.cols;
+    this.top     = top;
+    this.first   = top / CHUNK_ROWS;
+    this.stack   = stack;
+    this.board   = board;
+    linesCleared = tetris.linesCleared;
+    piecesPlaced = tetris.piecesPlaced;
+    isGameover   = tetris.isGameover;
+    usedHold     = tetris.usedHold;
+
+    Piece active = tetris.activePiece;
+    activeType   = active.type;
+    rowOffset    = active.rowOffset;
+    colOffset    = active.colOffset;
+    rotateClockwiseNext = active.rotateClockwiseNext;
+    landingRow   = tetris.landingRow();
+
+    nextShape    = tetris.nextPiece.type.shape;
+    storedShape  = tetris.storedPiece == null 
+      ? ' ' : tetris.storedPiece.type.shape;
+
+    seed            = tetris.seed;
+    randomizerState = tetris.randomizer.state;
+    hash            = tetris.hash();
+  }
+
+  /**
+   * Creates a snapshot of a game whose grid did not change since this
+   * one, sharing its rows and bitboard
+   * @param tetris game to take the pieces from
+   * @return the new snapshot
+   ***********************************************************/
+  GameSnapshot withPieces(Tetris tetris) {
+    return new GameSnapshot(tetris, top, stack, board);
+  }
+
+  /**
+   * Returns the highest row of the stack
+   * @return row of the top of the stack, rows if the grid is empty
+   ***********************************************************/
+  int top() {
+    return top;
+  }
+
+  /**
+   * Returns the rows of a chunk of the grid to share with the next
+   * snapshot
+   * @param chunk index of the chunk, the row divided by CHUNK_ROWS
+   * @return rows of the chunk, or null if the chunk is above the stack
+   ***********************************************************/
+  char[][] rowChunk(int chunk) {
+    return chunk < first ? null : stack[chunk - first];
+  }
+
+  /**
+   * Returns the bitboard of a chunk of the grid to share with the next
+   * snapshot
+   * @param chunk index of the chunk, the row divided by CHUNK_ROWS
+   * @return bitboard of the chunk, or null if the chunk is above the stack
+   ***********************************************************/
+  long[] boardChunk(int chunk) {
+    return chunk < first ? null : board[chunk - first];
+  }
+
+  /**
+   * Copies the shared rows from the chunk of the top of the stack down
+   * and their bitboard into a game restoring this snapshot, which must
+   * copy a row before writing to it
+   * @param grid rows of the game
+   * @param board bitboard of the game
+   ***********************************************************/
+  void copyInto(char[][] grid, long[] board) {
+    for (int c = 0 ; c < stack.length ; c++) {
+      int row = (first + c) * CHUNK_ROWS;
+      System.arraycopy(stack[c], 0, grid, row, stack[c].length);
+      System.arraycopy(this.board[c], 0, board, row, this.board[c].length);
+    }
+  }
+
+  /**
+   * Returns the consolidated tile of a cell, without the active piece
+   * @param row row of the cell
+   * @param col column of the cell
+   * @return shape of the tile, or ' ' if the cell is empty
+   ***********************************************************/
+  public char cell(int row, int col) {
+    return row < top ? ' '
+      : stack[row / CHUNK_ROWS - first][row % CHUNK_ROWS][col];
+  }
+
+  /**
+   * Returns the occupied cells of a row as a bitmask, bit 0 being the
+   * leftmost column
+   * @param row row of the grid
+   * @return bitmask of the consolidated tiles of the row
+   ***********************************************************/
+  public long rowMask(int row) {
+    return row < top ? 0
+      : board[row / CHUNK_ROWS - first][row % CHUNK_ROWS];
+  }
+
+  /**
+   * Returns whether a cell is covered by the active piece at a row offset
+   * @param row row of the cell
+   * @param col column of the cell
+   * @param offset row offset of the active piece
+   * @return true if a tile of the piece covers the cell
+   ***********************************************************/
+  private boolean covers(int row, int col, int offset) {
+    int i = row - offset;
+    int j = col - colOffset;
+    return i >= activeType.minRow && i <= activeType.maxRow
+      && j >= activeType.minCol && j <= activeType.maxCol
+      && (activeType.rowMask(i) >>> j & 1) != 0;
+  }
+
+  /**
+   * Returns whether a cell is covered by the active piece
+   * @param row row of the cell
+   * @param col column of the cell
+   * @return true if a tile of the active piece covers the cell
+   ***********************************************************/
+  public boolean isActive(int row, int col) {
+    return covers(row, col, rowOffset);
+  }
+
+  /**
+   * Returns whether a cell is covered by the active piece once dropped
+   * @param row row of the cell
+   * @param col column of the cell
+   * @param landingRow row offset of the dropped piece, from landingRow()
+   * @return true if a tile of the dropped piece covers the cell
+   ***********************************************************/
+  public boolean isShadow(int row, int col, int landingRow) {
+    return covers(row, col, landingRow);
+  }
+
+  /**
+   * Returns the lowest row the active piece can be dropped to, found by
+   * the game from its column heights when the snapshot was published
+   * @return row offset of the active piece after a drop
+   ***********************************************************/
+  public int landingRow() {
+    return landingRow;
+  }
+
+  /**
+   * Returns the character shown in a cell, the active piece over the
+   * consolidated tiles
+   * @param row row of the cell
+   * @param col column of the cell
+   * @return shape of the tile shown, or ' ' if the cell is empty
+   ***********************************************************/
+  public char shown(int row, int col) {
+    return isActive(row, col) ? activeType.shape : cell(row, col);
+  }
+
+  /**
+   * returns the string representation of the game in the format of
+   * Tetris.toString, drawn from the shared rows without copying them
+   * @return string representation of the game
+   */
+  @Override
+  public String toString() {
+    // lines the chunks up from the top of the stack, sharing their rows
+    char[][] lines = new char[rows - top][];
+    for (int row = top ; row < rows ; row++)
+      lines[row - top] = stack[row / CHUNK_ROWS - first][row % CHUNK_ROWS];
+    return format(lines, top, rows, cols, linesCleared, nextShape,
+        storedShape, activeType, rowOffset, colOffset);
+  }
+
+  /**
+   * Formats a game in the layout of Tetris.toString, putting the active
+   * piece over the rows as they are written rather than into a copy
+   * @param stack rows of the grid from the top row given down
+   * @param top row of the grid held by stack[0], the rows above it
+   * being empty
+   * @param rows number of rows of the grid
+   * @param cols number of columns of the grid
+   * @param linesCleared lines cleared
+   * @param nextShape shape of the next piece
+   * @param storedShape shape of the stored piece, ' ' if none
+   * @param activeType shape and rotation of the active piece
+   * @param rowOffset row of the active piece
+   * @param colOffset column of the active piece
+   * @return string representation of the game
+   ***********************************************************/
+  static String format(char[][] stack, int top, int rows, int cols,
+      int linesCleared, char nextShape, char storedShape,
+      PieceType activeType, int rowOffset, int colOffset) {
+
+    StringBuilder str = new StringBuilder(64 + rows * (2 * cols + 3));
+    str.append("\nLines cleared: ").append(linesCleared).append('\n');
+    str.append("Next piece: ").append(nextShape);
+    if (storedShape != ' ')
+      str.append("  Stored piece: ").append(storedShape);
+    str.append('\n');
+
+    border(str, cols);
+    for (int row = 0 ; row < rows ; row++) {
+      int i = row - rowOffset;
+      long active = i >= activeType.minRow && i <= activeType.maxRow
+        ? Tetris.shiftRow(activeType.rowMask(i), colOffset) : 0;
+      str.append('|');
+      for (int col = 0 ; col < cols ; col++)
+        str.append(' ').append((active >>> col & 1) != 0 ? activeType.shape
+            : row < top ? ' ' : stack[row - top][col]);
+      str.append(" |\n");
+    }
+    border(str, cols);
+    return str.toString();
+  }
+
+  private static void border(StringBuilder str, int cols) {
+    str.append('|');
+    for (int col = 0 ; col < cols ; col++)
+      str.append(" -");
+    str.append(" |\n");
+  }
+}
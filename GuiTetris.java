@@ -4,9 +4,11 @@
  * with the current status of the game.
  */
 
+import javafx.animation.*;
 import javafx.application.*;
 import javafx.scene.control.*;
 import javafx.scene.*;
+import javafx.scene.canvas.*;
 import javafx.scene.paint.*;
 import javafx.scene.shape.*;
 import javafx.scene.layout.*;
@@ -16,6 +18,8 @@ import javafx.scene.input.*;
 import javafx.scene.text.*;
 import javafx.geometry.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 
 /**
@@ -26,9 +30,12 @@ import java.io.*;
  * This is done by the private handler class, 
  * myKeyHandler, which registers user-inputted key commands. The various 
  * methods defined in this class cause certain squares in the interface to
- * change colors and are called by the handler. The private class 
- * MoveDownWorker simulates a downwards keypress every half second and
- * completes the Tetris game mechanics.
+ * change colors and are called by the frame loop. The private class 
+ * Gravity simulates a downwards keypress every drop interval and
+ * completes the Tetris game mechanics. Keys and gravity only add commands
+ * to a CommandQueue, which the private class FrameLoop drains once per
+ * frame on the JavaFX application thread before rendering once, so the
+ * game is only ever changed by that thread.
  *
  * @author Sachihiko Kanda
  */
@@ -40,17 +47,65 @@ public class GuiTetris extends Application {
   private static final int FONT_SIZE = 30;
   private static final int TILE_SIZE = 25;
 
+  // milliseconds between moves down at each level, the last interval is
+  // used for all higher levels
+  private static final long[] DROP_INTERVALS =
+  {500, 450, 400, 350, 300, 250, 200, 160, 130, 100};
+  private static final int LINES_PER_LEVEL = 10;
+
+  // number of frames averaged for each frame time report
+  private static final int FRAMES_PER_REPORT = 60;
+
+  // rows of the preview area above the board, and its fewest columns
+  private static final int PREVIEW_ROWS = 4;
+  private static final int PREVIEW_COLS = 10;
+
   private Tetris tetris;
   private GridPane pane;
   private MyKeyHandler myKeyHandler;
-
-  //references to access and update values and colors
+  private Gravity gravity;
+  private FrameLoop frameLoop;
+  private final CommandQueue commands = new CommandQueue();
+  private long[] dropIntervals = DROP_INTERVALS;
+  private Stage stage;
+  private Journal journal;
+
+  //the board is either drawn by rectangle nodes, or onto a single canvas
+  //when started with --renderer=canvas
+  private String renderer = "nodes";
+  private int tileSize = TILE_SIZE;
+  private GraphicsContext graphics;
+
+  //time spent on the frames since the last frame time report, from
+  //the start of render to the end of the layout pass of the pulse
+  private long frameNanos;
+  private int frames;
+
+  //start of the frame being drawn, 0 if none
+  private long frameStart;
+
+  //columns of tiles of the window, the board being centered under the
+  //preview area when it is narrower
+  private int width;
+  private int boardCol;
+
+  //references to access and update values and colors, sized by start
+  //from the grid of the game
   private Text title;
   private Text linesCleared;
-  private Color color;	
-  private Rectangle[][] topGrid = new Rectangle[10][4];  //next and stored
-  private Rectangle[][] botGrid = new Rectangle[10][20]; 	//play area
-  private Piece shadowPiece; 
+  private Rectangle[][] topGrid;  //next and stored
+  private Rectangle[][] botGrid; 	//play area
+
+  //frames drawn by the display methods, each cell holds the shape char
+  //of the piece covering it, SHADOW, or a space if it is empty
+  private static final char SHADOW = '#';
+  private char[][] topFrame;
+  private char[][] botFrame;
+
+  //what each tile currently shows, only cells that differ from
+  //the frame are filled again
+  private char[][] topShown;
+  private char[][] botShown;
 
   /**
    * Assigns color to color instance variable 
@@ -84,134 +139,171 @@ public class GuiTetris extends Application {
    * Updates tiles to display next and stored pieces. The stored piece is
    * displayed in the top left area of the scene and the next piece is
    * displayed in the top right area. 
+   *
+   * @param view snapshot of the game to display
    */
 
-  public void displayNextAndStored(){
+  public void displayNextAndStored(GameSnapshot view){
 
-    //Updates grid to display color stored piece
-    color = getColor(tetris.nextPiece.shape); 
+    //Updates frame to display next piece
+    displayPreview(view.nextShape, width - 4);
 
-    for (int i = 0; i < tetris.nextPiece.tiles.length; i++){
-      for (int j = 0; j < tetris.nextPiece.tiles.length; j++){
-        if (tetris.nextPiece.tiles[j][i] == 1) {
-          if (tetris.nextPiece.shape == 'O')
-            topGrid[i + 7][j + 1].setFill(color);
-          else
-            topGrid[i + 6][j].setFill(color);
-          //pane.add(rectangle, i + 6, j + 1);
-        }
-      }
-    }
-
-    //Updates grid to display stored piece
-
-    if (tetris.storedPiece != null) {
-      color = getColor(tetris.storedPiece.shape); 
-
-      for (int i = 0; i < tetris.storedPiece.tiles.length; i++){
-        for (int j = 0; j < tetris.storedPiece.tiles.length; j++){
-          if (tetris.storedPiece.tiles[j][i] == 1) {
-            if (tetris.storedPiece.shape == 'O')
-              topGrid[i + 1][j + 1].setFill(color);
-            else
-              topGrid[i][j].setFill(color);
-            //pane.add(rectangle, i + 6, j + 1);
-          }
-        }
-      }
-    }
+    //Updates frame to display stored piece
+    if (view.storedShape != ' ')
+      displayPreview(view.storedShape, 0);
 
   }
 
   /**
-   * Updates the tiles to display the active piece in its location on the board
+   * Updates the preview area to display a piece in its initial rotation
+   *
+   * @param shape shape of the piece
+   * @param col leftmost column of the piece in the preview area
    */
-
-  public void displayActive(){
-    color = getColor(tetris.activePiece.shape);
-
-    /*put the active piece in the grid*/
-    for (int i = 0; i < tetris.activePiece.tiles.length; i++)
-      for (int j = 0; j < tetris.activePiece.tiles.length; j++)
-        if (tetris.activePiece.tiles[i][j] == 1) {
-          this.botGrid[j + tetris.activePiece.colOffset]
-            [i + tetris.activePiece.rowOffset].setFill(color);
-        }
+  private void displayPreview(char shape, int col){
+    PieceType type = PieceType.of(shape);
+    int offset = shape == 'O' ? 1 : 0;
+    for (int k = 0; k < PieceType.CELLS; k++)
+      topFrame[type.cellCol(k) + col + offset][type.cellRow(k) + offset] = 
+        shape;
   }
+
   /**
-   * Resets colors of tiles displaying active and shadow piece to default color
+   * Updates the frame to display the active piece in its location on the 
+   * board
    *
-   * Called before active piece location is changed and displayActive is called
+   * @param view snapshot of the game to display
    */
 
-  public void erase(){
-    for (int i = 0; i < tetris.activePiece.tiles.length; i++)
-      for (int j = 0; j < tetris.activePiece.tiles.length; j++)
-        if (tetris.activePiece.tiles[i][j] == 1) {
-          this.botGrid[j + tetris.activePiece.colOffset]
-            [i + tetris.activePiece.rowOffset].setFill(Color.SILVER);
-          this.botGrid[j + shadowPiece.colOffset]
-            [i + shadowPiece.rowOffset].setFill(Color.SILVER);
-        }
-
+  public void displayActive(GameSnapshot view){
+    /*put the active piece in the frame*/
+    PieceType type = view.activeType;
+    for (int k = 0; k < PieceType.CELLS; k++)
+      this.botFrame[type.cellCol(k) + view.colOffset]
+        [type.cellRow(k) + view.rowOffset] = type.shape;
   }
   /**
-   * Resets the colors of the entire board to default color. 
+   * Resets the entire frame to empty cells. 
    *
-   * Called before lines are cleared and consolidated pieces are updated.
+   * Called before the pieces of the next frame are displayed.
    */
   public void clearGrid(){
-    for (int i = 0; i < 10; i++){
-      for (int j = 0; j < 24; j++){
-        if (j < 4) //top grid occupies first four rows
-          this.topGrid[i][j].setFill(Color.BLACK);
-        else
-          this.botGrid[i][j - 4].setFill(Color.SILVER);
-      }
-    }
-
+    for (int i = 0; i < topFrame.length; i++)
+      Arrays.fill(this.topFrame[i], ' ');
+    for (int i = 0; i < botFrame.length; i++)
+      Arrays.fill(this.botFrame[i], ' ');
   }
   /**
-   * Resets the color of the entire board to default color. 
+   * Updates the frame to display all consolidated pieces.
    *
-   * Called before lines are cleared and consolidated pieces are updated.
+   * @param view snapshot of the game to display
    */
 
-  public void displayConsolidated(){
-    clearGrid();
-    for (int i = 0 ; i < 20 ; i++){
-      for (int j = 0 ; j < 10 ; j++) {
-        if (tetris.grid[i][j] != ' '){
-          color = getColor(tetris.grid[i][j]);
-          this.botGrid[j][i].setFill(color);
-        }
+  public void displayConsolidated(GameSnapshot view){
+    for (int i = 0 ; i < view.rows ; i++){
+      for (int j = 0 ; j < view.cols ; j++) {
+        this.botFrame[j][i] = view.cell(i, j);
       }
     }
   }
   /**
-   * Updates tiles to display shadow piece. 
+   * Updates frame to display shadow piece. 
+   *
+   * @param view snapshot of the game to display
    */
-  public void displayShadow(){
-    shadowPiece = new Piece(tetris.activePiece);
-    Piece testShadowPiece = new Piece(tetris.activePiece);
+  public void displayShadow(GameSnapshot view){
+    //places shadow at the lowest possible position
+    PieceType type = view.activeType;
+    int rowOffset  = view.landingRow();
 
-    //moves test piece to see if there is conflict, moves shadow 
-    //down until it has reached the lowest possible position
-    testShadowPiece.rowOffset++;
+    for (int k = 0; k < PieceType.CELLS; k++)
+      this.botFrame[type.cellCol(k) + view.colOffset]
+        [type.cellRow(k) + rowOffset] = SHADOW;
 
-    while(!tetris.hasConflict(testShadowPiece)){
-      shadowPiece.rowOffset++;
-      testShadowPiece.rowOffset++;
+  }
+
+  /**
+   * Fills the tiles whose cell in the frame changed since the 
+   * previous frame, leaving all other tiles untouched
+   */
+  public void repaint(){
+    for (int i = 0; i < topFrame.length; i++){
+      for (int j = 0; j < PREVIEW_ROWS; j++)
+        if (topFrame[i][j] != topShown[i][j]) {
+          topShown[i][j] = topFrame[i][j];
+          Color fill = topFrame[i][j] == ' ' 
+            ? Color.BLACK : getColor(topFrame[i][j]);
+          if (graphics == null)
+            topGrid[i][j].setFill(fill);
+          else
+            fillTile(i, j, fill);
+        }
+    }
+    for (int i = 0; i < botFrame.length; i++){
+      for (int j = 0; j < botFrame[i].length; j++)
+        if (botFrame[i][j] != botShown[i][j]) {
+          botShown[i][j] = botFrame[i][j];
+          Color fill = botFrame[i][j] == ' ' ? Color.SILVER
+            : botFrame[i][j] == SHADOW ? Color.BLACK
+            : getColor(botFrame[i][j]);
+          if (graphics == null)
+            botGrid[i][j].setFill(fill);
+          else
+            fillTile(i + boardCol, j + PREVIEW_ROWS, fill);
+        }
     }
+  }
 
-    //updates color
-    for (int col = 0; col < shadowPiece.tiles.length ; col++)
-      for (int row = 0; row < shadowPiece.tiles.length; row++)
-        if (shadowPiece.tiles[row][col] == 1)
-          this.botGrid[col + shadowPiece.colOffset]
-            [row + shadowPiece.rowOffset]
-            .setFill(Color.BLACK);
+  /**
+   * Draws one tile onto the canvas, the preview area takes up the first
+   * four rows of tiles and the board the rows below it
+   *
+   * @param col column of the tile
+   * @param row row of the tile on the canvas
+   * @param fill color of the tile
+   */
+  private void fillTile(int col, int row, Color fill){
+    graphics.setFill(fill);
+    graphics.fillRect(col * (tileSize + TILE_GAP), row * (tileSize + TILE_GAP),
+        tileSize, tileSize);
+  }
 
+  /**
+   * Draws the current state of the game. The whole frame is rebuilt from
+   * the latest snapshot of the game, but only the tiles that changed are
+   * repainted. The frame is timed until the end of the layout pass of
+   * the pulse, by reportFrame
+   */
+  public void render(){
+    if (frameStart == 0)
+      frameStart = System.nanoTime();
+    GameSnapshot view = tetris.snapshot();
+    clearGrid();
+    displayConsolidated(view);
+    displayShadow(view);
+    displayActive(view);
+    displayNextAndStored(view);
+    repaint();
+  }
+
+  /**
+   * Called after the CSS and layout pass of every pulse. Adds the time 
+   * since the frame drawn in the pulse was rendered, so the scene graph
+   * work the renderer causes is counted along with render itself, and 
+   * shows the average in the window title every FRAMES_PER_REPORT frames
+   */
+  private void reportFrame(){
+    if (frameStart == 0)
+      return;
+    frameNanos += System.nanoTime() - frameStart;
+    frameStart  = 0;
+
+    if (++frames == FRAMES_PER_REPORT) {
+      stage.setTitle(String.format("Tetris (%s renderer, %.3f ms/frame)",
+            renderer, frameNanos / 1e6 / frames));
+      frameNanos = 0;
+      frames     = 0;
+    }
   }
 
   /**
@@ -223,7 +315,45 @@ public class GuiTetris extends Application {
 
   @Override
   public void start(Stage primaryStage) {
-    this.tetris = new Tetris();
+    //reads the size of the grid given as --rows=20 and --cols=10
+    int rows = Tetris.ROWS;
+    int cols = Tetris.COLS;
+    String dimension = getParameters().getNamed().get("rows");
+    if (dimension != null)
+      rows = Integer.parseInt(dimension);
+    dimension = getParameters().getNamed().get("cols");
+    if (dimension != null)
+      cols = Integer.parseInt(dimension);
+    this.tetris = new Tetris(rows, cols);
+    this.stage  = primaryStage;
+
+    width    = Math.max(PREVIEW_COLS, cols);
+    boardCol = (width - cols) / 2;
+    topGrid  = new Rectangle[width][PREVIEW_ROWS];
+    botGrid  = new Rectangle[cols][rows];
+    topFrame = new char[width][PREVIEW_ROWS];
+    botFrame = new char[cols][rows];
+    topShown = new char[width][PREVIEW_ROWS];
+    botShown = new char[cols][rows];
+
+    //reads drop intervals given as --drop-intervals=500,400,...
+    String intervals = getParameters().getNamed().get("drop-intervals");
+    if (intervals != null)
+      dropIntervals = Arrays.stream(intervals.split(","))
+        .mapToLong(Long::parseLong).toArray();
+
+    //reads renderer given as --renderer=nodes or --renderer=canvas and
+    //tile size given as --tile-size=25
+    renderer = getParameters().getNamed().getOrDefault("renderer", renderer);
+    //records every command to the file given as --journal=game.tj
+    String journalFile = getParameters().getNamed().get("journal");
+    if (journalFile != null) {
+      try { journal = new Journal(journalFile, tetris); }
+      catch(IOException x){ x.printStackTrace(); }
+    }
+    String size = getParameters().getNamed().get("tile-size");
+    if (size != null)
+      tileSize = Integer.parseInt(size);
 
     pane = new GridPane();
     pane.setAlignment(Pos.CENTER);
@@ -236,37 +366,42 @@ public class GuiTetris extends Application {
     //initilize GUI elements
     title = new Text("Tetris");
     title.setFont(Font.font("Consolas", FontWeight.BOLD, FONT_SIZE));
-    pane.add(title, 0, 0, 8, 1);
+    pane.add(title, 0, 0, width - 2, 1);
 
     linesCleared = new Text(Integer.toString(tetris.linesCleared));
     linesCleared.setFont(Font.font("Consolas", FontWeight.BOLD, FONT_SIZE));
 
-    pane.add(linesCleared, 8, 0, 2, 1);
+    pane.add(linesCleared, width - 2, 0, 2, 1);
 
-    //initialize pane
-    for (int i = 0 ; i < 10  ; i++)
-      for (int j = 0 ; j < 4 ; j++){
-        topGrid[i][j] = new Rectangle(TILE_SIZE, TILE_SIZE, Color.BLACK);
-      }
-    for (int i = 0 ; i < 10  ; i++)
-      for (int j = 0 ; j < 20 ; j++){
-        botGrid[i][j] = new Rectangle(TILE_SIZE, TILE_SIZE, Color.SILVER);
-      }
-    for (int i = 0 ; i < 10 ; i++)
-      for (int j = 0 ; j < 24 ; j++){
-        if (j < 4)
+    //initialize pane, nothing has been drawn yet so every tile is
+    //painted by the first frame
+    if (renderer.equals("canvas")) {
+      Canvas canvas = new Canvas(width * (tileSize + TILE_GAP) - TILE_GAP,
+          (PREVIEW_ROWS + rows) * (tileSize + TILE_GAP) - TILE_GAP);
+      graphics = canvas.getGraphicsContext2D();
+      pane.add(canvas, 0, 1, width, PREVIEW_ROWS + rows);
+    }
+    else {
+      for (int i = 0 ; i < width  ; i++)
+        for (int j = 0 ; j < PREVIEW_ROWS ; j++){
+          topGrid[i][j] = new Rectangle(tileSize, tileSize, Color.BLACK);
           pane.add(topGrid[i][j], i , j + 1);
-        else
-          pane.add(botGrid[i][j - 4], i, j + 1);
-      } 
+        }
+      for (int i = 0 ; i < cols  ; i++)
+        for (int j = 0 ; j < rows ; j++){
+          botGrid[i][j] = new Rectangle(tileSize, tileSize, Color.SILVER);
+          pane.add(botGrid[i][j], i + boardCol, j + PREVIEW_ROWS + 1);
+        }
+    }
 
-    //displays pieces 
-    displayNextAndStored();
-    displayActive();
-    displayShadow();
+    //displays pieces, the first frame is laid out along with the whole
+    //window and is not timed
+    render();
+    frameStart = 0;
 
     //creates Scene object to add to primary stage
     Scene scene = new Scene(pane);
+    scene.addPostLayoutPulseListener(this::reportFrame);
     primaryStage.setTitle("Tetris");
     primaryStage.setScene(scene);
     primaryStage.show();
@@ -274,8 +409,67 @@ public class GuiTetris extends Application {
     //creates and registers handler
     myKeyHandler = new MyKeyHandler();
     scene.setOnKeyPressed(myKeyHandler);
-    MoveDownWorker worker = new MoveDownWorker();
-    worker.start();
+    frameLoop = new FrameLoop();
+    frameLoop.wake();
+    gravity = new Gravity();
+    gravity.schedule();
+  }
+
+  /**
+   * Stops the gravity timer and closes the journal when the application 
+   * exits
+   */
+  @Override
+  public void stop() {
+    if (frameLoop != null)
+      frameLoop.stop();
+    if (gravity != null)
+      gravity.timer.shutdownNow();
+    if (journal != null) {
+      try { journal.close(); }
+      catch(IOException x){ x.printStackTrace(); }
+    }
+  }
+
+  /**
+   * Returns the time between moves down at the current level
+   *
+   * @return drop interval in milliseconds
+   */
+  public long dropInterval() {
+    int level = tetris.linesCleared / LINES_PER_LEVEL;
+    return dropIntervals[Math.min(level, dropIntervals.length - 1)];
+  }
+
+  /**
+   * Applies every queued command and, if any was applied, renders the
+   * game once. Called on the application thread.
+   */
+  public void step() {
+    if (commands.drain(tetris) > 0) {
+      //repaints the cells that changed
+      render();
+
+      //updates lines cleared
+      linesCleared.setText(Integer.toString(tetris.linesCleared));
+      gravity.interval = dropInterval();
+    }
+    if (tetris.isGameover) {
+      //updates title when game over
+      title.setText("Game Over!");
+      gravity.timer.shutdown();
+    }
+  }
+
+  /**
+   * Queues a command and wakes the frame loop up to apply it. Called by
+   * the key handler and the gravity timer.
+   *
+   * @param command command to queue
+   */
+  public void offer(Command command) {
+    commands.offer(command);
+    frameLoop.wake();
   }
 
 
@@ -299,101 +493,114 @@ public class GuiTetris extends Application {
 
     @Override
     public void handle(KeyEvent e){
-      // TODO handle key events here
-      if(!tetris.isGameover){
-
-        //resets color of active piece and shadow
-        erase();	
-
-        //gets key code from key event and updates GUI
-        switch(e.getCode()){
-          //rotates piece 
-          case UP   : tetris.rotate();
-                      break;
-          case DOWN : tetris.move(Direction.DOWN);
-                      displayConsolidated();
-                      displayNextAndStored();
-                      break;
-          case LEFT : tetris.move(Direction.LEFT);
-                      break;
-          case RIGHT: tetris.move(Direction.RIGHT);
-                      break;
-          case SPACE: tetris.drop();
-                      tetris.move(Direction.DOWN);
-                      displayConsolidated();
-                      displayNextAndStored();
-                      break;
-          case Z    : tetris.hold();
-                      displayConsolidated();
-                      displayNextAndStored();
-                      break;	     
-          case O    : try { tetris.outputToFile(); }
-                      catch(IOException x){}
-                      break;
-        }
-
-        //updates colors to display new location of
-        //active piece and shadow
-        displayShadow();
-        displayActive();
-
-        //updates lines cleared
-        linesCleared.setText(Integer.toString(tetris.linesCleared));
-      }
-      else {
-        //updates title when game over
-        title.setText("Game Over!");
+      //gets key code from key event and queues its commands, which are
+      //applied by the next frame
+      switch(e.getCode()){
+        //rotates piece 
+        case UP   : offer(Command.ROTATE);
+                    break;
+        case DOWN : offer(Command.DOWN);
+                    break;
+        case LEFT : offer(Command.LEFT);
+                    break;
+        case RIGHT: offer(Command.RIGHT);
+                    break;
+        case SPACE: offer(Command.DROP);
+                    offer(Command.DOWN);
+                    break;
+        case Z    : offer(Command.HOLD);
+                    break;	     
+        //saves the game after the commands queued before the key
+        case O    : step();
+                    try { tetris.outputToFile(); }
+                    catch(IOException x){}
+                    break;
+        default   : break;
       }
     }
   }
 
 
-  /* ---------------- DO NOT EDIT BELOW THIS LINE ---------------- */
-
   /**
-   * private class GuiTetris.MoveDownWorker
-   * a thread that simulates a downwards keypress every some interval
-   * @author Junshen (Kevin) Chen
+   * private class GuiTetris.FrameLoop
+   * drains the command queue once per frame on the application thread
+   * and renders the game once for all the commands of the frame. The
+   * timer stops itself once the queue is empty and is started again by
+   * the next command offered, so an idle or finished game takes no
+   * pulses at all
    */
-  private class MoveDownWorker extends Thread{
+  private class FrameLoop extends AnimationTimer {
 
-    private static final int DROP_INTERVAL = 500; // millisecond
-    private int move_down_timer; 
+    //true from the time the timer is started until it stops itself
+    private final AtomicBoolean awake = new AtomicBoolean();
 
     /**
-     * method run
-     * called when the thread begins, decrements the timer every iteration
-     * of a loop, reset the timer and sends a keydown when timer hits 0
+     * method wake
+     * starts the timer on the application thread unless it is already
+     * running, called by any thread after offering a command
      */
+    public void wake(){
+      if (awake.compareAndSet(false, true))
+        Platform.runLater(this::start);
+    }
+
     @Override
-    public void run(){
+    public void handle(long now){
+      step();
+      //sleeps until the next command, looking at the queue again in
+      //case a command was offered while awake was still set
+      if (commands.isEmpty()) {
+        awake.set(false);
+        stop();
+        if (!commands.isEmpty())
+          wake();
+      }
+    }
+  }
 
-      // run forever until returned
-      while (true) {
-        // stop the thread if the game is over
-        if (tetris.isGameover) return; 
 
-        // wait 1ms per iteration
-        try {
-          Thread.sleep(1);
-        } catch (InterruptedException e) {
-          break;
-        }
+  /**
+   * private class GuiTetris.Gravity
+   * simulates a downwards keypress every drop interval. The timer thread
+   * only wakes up once per interval and queues a TICK, which the frame
+   * loop applies on the JavaFX application thread, so the game and the
+   * GUI are only ever changed by that one thread.
+   */
+  private class Gravity implements Runnable {
 
-        move_down_timer -= 1;
-        if (move_down_timer <= 0 ) {
+    //drop interval of the current level, set by the application thread
+    private volatile long interval = dropInterval();
 
-          // simulate one keydown by calling the 
-          // handler.handle()
-          myKeyHandler.handle(
-              new KeyEvent(null, "", "", KeyCode.DOWN, 
-                false, false, false, false)
-              );
+    private final ScheduledExecutorService timer = 
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "gravity");
+        thread.setDaemon(true);
+        return thread;
+      });
 
-          move_down_timer = DROP_INTERVAL;
-        }
+    /**
+     * method schedule
+     * schedules the next move down after the drop interval of the 
+     * current level
+     */
+    public void schedule(){
+      try {
+        timer.schedule(this, interval, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        //the game is over
       }
     }
-  } // end of private class MoveDownWorker
+
+    /**
+     * method run
+     * called on the timer thread, queues a move down and schedules the 
+     * next one, until the game is over and the timer is shut down
+     */
+    @Override
+    public void run(){
+      offer(Command.TICK);
+      schedule();
+    }
+  } // end of private class Gravity
 
 }
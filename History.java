@@ -0,0 +1,201 @@
+/**
+ *  Contains a bounded history of the pieces placed and held in a game of
+ *  Tetris, through which the game can be rewound.
+ * */
+
+/** The History class records every step of a game, a piece placed or a
+ *  piece held, as one long in a ring buffer, and every checkpointInterval
+ *  steps it keeps a GameSnapshot of the game as a checkpoint. Snapshots
+ *  share the rows of the grid with the game, so a checkpoint costs the
+ *  rows changed since the one before it, and the memory of the history is
+ *  bounded by its capacity whatever the length of the game.
+ *
+ *  The game is rewound to a step by restoring the nearest checkpoint
+ *  before it and placing the pieces recorded after the checkpoint again.
+ *  The snapshot holds the state of the randomizer, so the same pieces
+ *  come in the same order and at most checkpointInterval - 1 pieces are
+ *  placed again. After a rewind the steps after it are forgotten and the
+ *  game records its new steps from there.
+ *
+ *  Step layout: bit 0 set for a hold, bits 1 to 3 the shape index, bits 4
+ *  and 5 the rotation, bits 6 to 8 the lines cleared, bits 16 to 31 the
+ *  row offset and bits 32 to 47 the column offset of the piece placed,
+ *  the offsets as signed 16 bit numbers.
+ *  */
+public class History {
+
+  // steps kept when no capacity is given
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  // steps between checkpoints when no interval is given
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+  private static final long HOLD = 1;
+
+  private final Tetris tetris;
+  private final int checkpointInterval;
+
+  // step n is kept at index (n - 1) % steps.length
+  private final long[] steps;
+
+  // checkpoint of step n is kept at index (n / checkpointInterval) %
+  // checkpoints.length, along with n
+  private final GameSnapshot[] checkpoints;
+  private final long[] checkpointSteps;
+
+  // steps recorded since the history was attached, less those rewound
+  private long count;
+
+  // oldest step whose following steps may have been overwritten
+  private long overwritten;
+
+  //Constructor which attaches a history of the default capacity to a game
+  public History(Tetris tetris) {
+    this(tetris, DEFAULT_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL);
+  }
+
+  //Constructor which attaches a history to a game, keeping the last
+  //capacity steps and a checkpoint every checkpointInterval steps
+  public History(Tetris tetris, int capacity, int checkpointInterval) {
+    if (capacity < 1 || checkpointInterval < 1)
+      throw new IllegalArgumentException(
+          "capacity and checkpoint interval must be positive");
+    this.tetris             = tetris;
+    this.checkpointInterval = checkpointInterval;
+    steps           = new long[capacity];
+    checkpoints     = new GameSnapshot[capacity / checkpointInterval + 2];
+    checkpointSteps = new long[checkpoints.length];
+    checkpoint();
+    tetris.history = this;
+  }
+
+  /**
+   * Called by the game after a piece is placed
+   * @param placed piece placed, in its final position
+   * @param cleared lines cleared by the piece
+   ***********************************************************/
+  void locked(Piece placed, int cleared) {
+    record((long) placed.type.shapeIndex << 1 
+        | (long) placed.type.rotation << 4
+        | (long) cleared << 6 | ((long) placed.rowOffset & 0xffff) << 16
+        | ((long) placed.colOffset & 0xffff) << 32);
+  }
+
+  /**
+   * Called by the game after the active piece was swapped with the
+   * stored piece
+   * @param held piece which was active before the hold
+   ***********************************************************/
+  void held(Piece held) {
+    record(HOLD | (long) held.type.shapeIndex << 1);
+  }
+
+  /**
+   * Adds a step, and a checkpoint if it is due
+   * @param step packed step
+   ***********************************************************/
+  private void record(long step) {
+    steps[(int) (count % steps.length)] = step;
+    count++;
+    overwritten = Math.max(overwritten, count - steps.length);
+    if (count % checkpointInterval == 0)
+      checkpoint();
+  }
+
+  /**
+   * Keeps a snapshot of the game as the checkpoint of the current step
+   ***********************************************************/
+  private void checkpoint() {
+    int slot = (int) (count / checkpointInterval % checkpoints.length);
+    checkpoints[slot]     = tetris.capture();
+    checkpointSteps[slot] = count;
+  }
+
+  /**
+   * Returns the number of steps recorded, which is the current step
+   * @return steps since the history was attached
+   ***********************************************************/
+  public long steps() {
+    return count;
+  }
+
+  /**
+   * Returns the oldest step the game can be rewound to
+   * @return oldest step retained
+   ***********************************************************/
+  public long oldestStep() {
+    long oldest = (overwritten + checkpointInterval - 1)
+      / checkpointInterval * checkpointInterval;
+    return Math.min(oldest, count);
+  }
+
+  /**
+   * Returns whether a step is retained, that is whether the game can be
+   * rewound to it
+   * @param step step to rewind to
+   * @return true if the step is retained
+   ***********************************************************/
+  public boolean isRetained(long step) {
+    return step >= oldestStep() && step <= count;
+  }
+
+  /**
+   * Rewinds the game by a number of steps
+   * @param back steps to undo
+   * @return false if the step is not retained, leaving the game as it was
+   ***********************************************************/
+  public boolean rewind(int back) {
+    return rewindTo(count - back);
+  }
+
+  /**
+   * Rewinds the game to the state it was in after a step, forgetting the
+   * steps after it
+   * @param step step to rewind to
+   * @return false if the step is not retained, leaving the game as it was
+   * @throws IllegalStateException if a journal is attached to the game,
+   * since it cannot record a rewind
+   ***********************************************************/
+  public boolean rewindTo(long step) {
+    if (tetris.journal != null)
+      throw new IllegalStateException("cannot rewind a game with a journal");
+    if (!isRetained(step))
+      return false;
+
+    long from = step / checkpointInterval * checkpointInterval;
+    int slot  = (int) (from / checkpointInterval % checkpoints.length);
+    if (checkpointSteps[slot] != from)
+      throw new IllegalStateException("checkpoint of step " + from + " lost");
+
+    // the steps placed again must not be recorded a second time
+    tetris.history = null;
+    try {
+      tetris.restore(checkpoints[slot]);
+      for (long n = from ; n < step ; n++)
+        apply(steps[(int) (n % steps.length)]);
+    } finally {
+      tetris.history = this;
+    }
+    count = step;
+    return true;
+  }
+
+  /**
+   * Plays a step again
+   * @param step packed step
+   * @throws IllegalStateException if the game does not match the step
+   ***********************************************************/
+  private void apply(long step) {
+    int shapeIndex = (int) (step >>> 1 & 7);
+    if (tetris.activePiece.type.shapeIndex != shapeIndex)
+      throw new IllegalStateException("history does not match the game");
+    if ((step & HOLD) != 0) {
+      tetris.hold();
+      return;
+    }
+    int cleared = tetris.place((int) (step >>> 4 & 3),
+        (short) (step >>> 16), (short) (step >>> 32));
+    if (cleared != (int) (step >>> 6 & 7))
+      throw new IllegalStateException("history does not match the game");
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ *  Contains an append-only binary log of every command given to a game of
+ *  Tetris, from which the game can be replayed exactly.
+ * */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** The Journal class records one byte per command, the ordinal of the
+ *  Command. Commands are collected in a buffer on the game thread, and full
+ *  buffers are written to the file channel by a background thread, so the
+ *  game never waits on the disk.
+ *
+ *  Every keyframeInterval placed pieces the full state of the game is
+ *  written as a keyframe, and the journal starts with a keyframe of the
+ *  game it is attached to, so it can be attached at any point of a game.
+ *  On close an index of the keyframes is appended, with which Replay seeks
+ *  to any piece by loading the nearest keyframe before it and replaying
+ *  only the commands after it.
+ *
+ *  File layout: MAGIC (int), VERSION (byte), seed (long), keyframeInterval
+ *  (int), then commands and keyframes, a keyframe being KEYFRAME (byte)
+ *  followed by Tetris.writeState. The index is a pair of longs per
+ *  keyframe, the pieces placed and the file offset of its KEYFRAME byte,
+ *  followed by the number of keyframes (int), the file offset of the
+ *  index (long) and FOOTER_MAGIC (int). Version 1 files have no keyframe
+ *  interval, keyframes or index, and start from Tetris(seed).
+ *  */
+public class Journal implements Closeable {
+
+  public static final int MAGIC = 0x544a4e4c; // "TJNL"
+  public static final int FOOTER_MAGIC = 0x544a4958; // "TJIX"
+  public static final byte VERSION = 2;
+
+  // marks a keyframe in place of a command
+  public static final byte KEYFRAME = 0x7f;
+
+  // size of the footer after the index entries
+  public static final int FOOTER_SIZE = 4 + 8 + 4;
+
+  // pieces placed between keyframes when none is given
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 500;
+
+  // size of each buffer handed to the writer thread
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+
+  // writes full buffers in the order they were handed over
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "journal writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // buffers the writer has finished with, reused by the game thread
+  private final BlockingQueue<ByteBuffer> spare = new LinkedBlockingQueue<>();
+
+  // size of a keyframe of the game, which a buffer must hold
+  private final int keyframeSize;
+
+  // large enough for a keyframe
+  private final int bufferSize;
+
+  // buffer being filled by the game thread
+  private ByteBuffer buffer;
+
+  // bytes handed to the writer thread so far
+  private long written;
+
+  private final int keyframeInterval;
+
+  // pieces placed and file offset of every keyframe written
+  private long[] keyframePieces  = new long[16];
+  private long[] keyframeOffsets = new long[16];
+  private int keyframes;
+
+  // first error of the writer thread, thrown by close
+  private volatile IOException failure;
+
+  // true once close has written the index, so it is only written once
+  private boolean closed;
+
+  //Constructor which creates the journal file and attaches it to a game,
+  //with the default keyframe interval
+  public Journal(String filename, Tetris tetris) throws IOException {
+    this(filename, tetris, DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  //Constructor which creates the journal file and attaches it to a game,
+  //writing a keyframe every keyframeInterval placed pieces
+  public Journal(String filename, Tetris tetris, int keyframeInterval)
+    throws IOException {
+
+    if (keyframeInterval < 1)
+      throw new IllegalArgumentException("keyframe interval must be positive");
+    this.keyframeInterval = keyframeInterval;
+    keyframeSize = 1 + Tetris.stateSize(tetris.rows, tetris.cols);
+    bufferSize   = Math.max(BUFFER_SIZE, keyframeSize);
+    buffer       = ByteBuffer.allocateDirect(bufferSize);
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    buffer.putInt(MAGIC).put(VERSION).putLong(tetris.seed)
+      .putInt(keyframeInterval);
+    keyframe(tetris);
+    tetris.journal = this;
+  }
+
+  /**
+   * Appends a command, called on the game thread
+   * @param command command given to the game
+   ***********************************************************/
+  public void record(Command command) {
+    if (!buffer.hasRemaining())
+      flush();
+    buffer.put((byte) command.ordinal());
+  }
+
+  /**
+   * Called by the game after a piece is placed, writes a keyframe when
+   * the number of pieces placed is a multiple of the keyframe interval
+   * @param tetris game the journal is attached to
+   ***********************************************************/
+  public void locked(Tetris tetris) {
+    if (tetris.piecesPlaced % keyframeInterval == 0)
+      keyframe(tetris);
+  }
+
+  /**
+   * Appends the full state of a game and adds it to the index
+   * @param tetris game the journal is attached to
+   ***********************************************************/
+  private void keyframe(Tetris tetris) {
+    if (buffer.remaining() < keyframeSize)
+      flush();
+    if (keyframes == keyframePieces.length) {
+      keyframePieces  = Arrays.copyOf(keyframePieces, 2 * keyframes);
+      keyframeOffsets = Arrays.copyOf(keyframeOffsets, 2 * keyframes);
+    }
+    keyframePieces[keyframes]  = tetris.piecesPlaced;
+    keyframeOffsets[keyframes] = written + buffer.position();
+    keyframes++;
+    buffer.put(KEYFRAME);
+    tetris.writeState(buffer);
+  }
+
+  /**
+   * Hands the current buffer to the writer thread and continues in a
+   * spare one
+   ***********************************************************/
+  public void flush() {
+    ByteBuffer full = buffer;
+    written += full.position();
+    full.flip();
+    writer.execute(() -> {
+      try {
+        while (full.hasRemaining())
+          channel.write(full);
+      } catch (IOException e) {
+        if (failure == null)
+          failure = e;
+      }
+      full.clear();
+      spare.offer(full);
+    });
+    buffer = spare.poll();
+    if (buffer == null)
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  /**
+   * Writes all recorded commands and the keyframe index and closes the
+   * file, doing nothing if the journal is already closed
+   * @throws IOException if any write failed
+   ***********************************************************/
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    long index = written + buffer.position();
+    for (int i = 0 ; i < keyframes ; i++) {
+      if (buffer.remaining() < 16)
+        flush();
+      buffer.putLong(keyframePieces[i]).putLong(keyframeOffsets[i]);
+    }
+    if (buffer.remaining() < FOOTER_SIZE)
+      flush();
+    buffer.putInt(keyframes).putLong(index).putInt(FOOTER_MAGIC);
+
+    flush();
+    writer.shutdown();
+    try {
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+    if (failure != null)
+      throw failure;
+  }
+}
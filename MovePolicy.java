@@ -0,0 +1,16 @@
+/**
+ * contains the interface used by Simulator to decide the moves of a game
+ */
+
+/**
+ * interface MovePolicy
+ * decides how the active piece of a game is placed. Simulator calls 
+ * play once per piece, and the policy moves, rotates, holds and drops 
+ * through the Tetris API. If the piece is still active when play returns,
+ * the simulator drops and consolidates it. One policy object is shared by
+ * all games of a run, which are played in parallel, so implementations
+ * must not keep per-game state.
+ */
+public interface MovePolicy {
+  void play(Tetris tetris);
+}
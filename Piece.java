@@ -8,8 +8,8 @@ import java.util.*;
 /** The Piece class models the seven available pieces in Tetris and
  *  their functions. The instance variables rowOffset and colOffset 
  *  define the position of the upper-left corner of the piece on the grid. 
- *  The instance variable tiles is a 2x2 array that models the shape 
- *  of the piece.
+ *  The instance variable type is the shared PieceType that models the
+ *  shape and rotation of the piece.
  * */
 public class Piece {
 
@@ -52,10 +52,11 @@ public class Piece {
   // random object used to generate a random shape
   public static Random random = new Random(); 
 
-  // char representation of shape of the piece, I, J, L, O, S, Z, T
-  public char shape;
+  // shape and rotation of the piece, shared by every piece of the same
+  // shape and rotation
+  public PieceType type;
 
-  // the position of the upper-left corner of the tiles array 
+  // the position of the upper-left corner of the type's square
   // relative to the Tetris grid
   public int rowOffset;
   public int colOffset;
@@ -65,19 +66,12 @@ public class Piece {
   // rotate clockwise
   public boolean rotateClockwiseNext = false;
 
-  // an array marking where the visible tiles are
-  // a 1 indicates there is a visible tile in that position
-  // a 0 indicates there is no visible tile in that position
-  public int[][] tiles;
-
 
   //Default no-argument constructor
   public Piece(){
-    int shape_number = random.nextInt(7);
-
-    shape = possibleShapes[shape_number];
+    type = PieceType.of(random.nextInt(7), 0);
 
-    if (shape == 'O'){
+    if (type.shape == 'O'){
       rowOffset = 0;
       colOffset = 4;
     }
@@ -86,87 +80,34 @@ public class Piece {
       rowOffset = -1;
       colOffset = 3;
     }
-
-    //Gets length of tile side
-    int tile_length = initialTiles[shape_number].length; 
-
-    //Creates empty 2x2 array onto which the piece is copied
-    tiles = new int[tile_length][tile_length];
-
-    for (int i = 0 ; i < tile_length ; i++ ) {
-      for (int j = 0 ; j < tile_length ; j++ ){
-        tiles[i][j] = initialTiles[shape_number][i][j];
-      }
-    }
   }
 
-  //Single-argument constructor which takes in a char as the argument 
+  //Single-argument constructor which takes in a char as the argument,
+  //for a grid of Tetris.COLS columns
   public Piece(char shape) {
+    this(shape, Tetris.COLS);
+  }
 
-    int shape_number = 0;
-
-    this.shape = shape;
-
-    //Gets index of shape in possibleShapes
-    switch(shape){ // O I S Z J L T
-      case 'O': break;
-      case 'I': shape_number = 1;
-                break;
-      case 'S': shape_number = 2;
-                break;
-      case 'Z': shape_number = 3;
-                break;
-      case 'J': shape_number = 4;
-                break;
-      case 'L': shape_number = 5;
-                break;
-      case 'T': shape_number = 6;
-    }
-
-    //Gets length of tile side
-    int tile_length = initialTiles[shape_number].length;
-
-    if ( shape == 'O' ) {
-      rowOffset = 0;
-      colOffset = 4;
-    }
-    else {
-      rowOffset = -1;
-      colOffset = 3;
-    }
-
-    //Creates empty 2x2 array onto which piece is copied
-    tiles = new int[tile_length][tile_length];
+  //Constructor which takes in a char and the number of columns of the
+  //grid, the piece spawning in the middle of the grid
+  public Piece(char shape, int cols) {
+    type = PieceType.of(shape);
 
-    for (int i = 0 ; i < tile_length ; i++ ) {
-      for (int j = 0 ; j < tile_length ; j++ ){
-        tiles[i][j] = initialTiles[shape_number][i][j];
-      }
-    }
+    rowOffset = shape == 'O' ? 0 : -1;
+    colOffset = (cols - type.size) / 2;
   }
 
   //Copy constructor which takes in another Piece Object as the argument
   public Piece ( Piece other ) {
-    shape     = other.shape;
-    rowOffset = other.rowOffset;
-    colOffset = other.colOffset;
-
-    //Gets length of argument Piece object tile side
-    int tile_length = other.tiles.length;
-    //Creates empty 2x2 array onto which piece is copied
-    tiles = new int[tile_length][tile_length];
-
-    for (int i = 0 ; i < tile_length ; i++) {
-      for (int j = 0 ; j < tile_length ; j++) {
-        tiles[i][j] = other.tiles[i][j];
-      }
-    }
+    type       = other.type;
+    rowOffset  = other.rowOffset;
+    colOffset  = other.colOffset;
+    rotateClockwiseNext = other.rotateClockwiseNext;
   }
 
 
   /**
-   * Rotates the instance variable tiles of the
-   * Piece Object according to Tetris rules. O, T, L, and J
+   * Rotates the Piece Object according to Tetris rules. O, T, L, and J
    * pieces always rotate clockwise, while other pieces 
    * alternate between counterclockwise and clockwise rotations
    * @param none
@@ -176,6 +117,7 @@ public class Piece {
   public void rotate(){
 
     //Rotates all 'O', 'T', 'L', and 'J' piece clockwise
+    char shape = type.shape;
     if (shape == 'O' || shape == 'T' || shape == 'L' || shape == 'J')
       rotateClockwise();
     //Alternates between counterclockwise and clockwise rotations
@@ -197,22 +139,7 @@ public class Piece {
    * @return none
    ************************************************************/
   public void rotateClockwise() {
-
-    //Creates 2x2 arrays to store pieces in intermediate phases
-    int[][] transposed_tiles = new int[tiles.length][tiles.length];
-    int[][] rotated_tiles    = new int[tiles.length][tiles.length];
-
-    //Transpose tiles, reflect about vertical axis
-    for (int i = 0 ; i < tiles.length ; i++) {
-      for (int j = 0 ; j < tiles.length ; j++) {
-        transposed_tiles[i][j] = tiles[j][i]; 
-        rotated_tiles[i][tiles.length - 1 - j] = transposed_tiles[i][j];
-      }
-    }
-    //copies rotated_tiles to tiles
-    for (int i = 0 ; i < tiles.length ; i++ )
-      for (int j = 0 ; j < tiles.length ; j++)
-        tiles[i][j] = rotated_tiles[i][j];
+    type = type.clockwise();
   }
 
   /** Rotates piece 90 degrees counterclockwise
@@ -220,21 +147,39 @@ public class Piece {
    * @return none
    ************************************************************/
   public void rotateCounterClockwise() {
+    type = type.counterClockwise();
+  }
 
-    //Creates 2x2 arrays to store pieces in intermediate phases
-    int[][] transposed_tiles = new int[tiles.length][tiles.length];
-    int[][] rotated_tiles    = new int[tiles.length][tiles.length];
+  /** Puts the piece in a rotation state directly
+   * @param rotation number of clockwise quarter turns, 0 to 3
+   * @return none
+   ************************************************************/
+  public void setRotation(int rotation) {
+    type = PieceType.of(type.shapeIndex, rotation);
+  }
 
-    for (int i = 0 ; i < tiles.length ; i++) {
-      for (int j = 0 ; j < tiles.length ; j++) {
-        transposed_tiles[i][j] = tiles[j][i]; 
-        rotated_tiles[tiles.length - 1 - i][j]= transposed_tiles[i][j];
-      }
-    }
+  /** Returns the type the next call to rotate() would produce,
+   * without changing the piece
+   * @param none
+   * @return type of the rotated piece
+   ***********************************************************/
+  public PieceType nextType() {
+    char shape = type.shape;
+    if (shape == 'O' || shape == 'T' || shape == 'L' || shape == 'J'
+        || rotateClockwiseNext)
+      return type.clockwise();
+    return type.counterClockwise();
+  }
 
-    for (int i = 0 ; i < tiles.length ; i++ )
-      for (int j = 0 ; j < tiles.length ; j++)
-        tiles[i][j] = rotated_tiles[i][j];
+  /** Returns the index of a shape in possibleShapes
+   * @param shape character of the shape
+   * @return index of the shape, or -1 if it is not a shape
+   ***********************************************************/
+  static int shapeIndex(char shape) {
+    for ( int i = 0 ; i < possibleShapes.length ; i++ )
+      if ( possibleShapes[i] == shape )
+        return i;
+    return -1;
   }
 
   /** Takes in the Direction enumerator and changes
@@ -0,0 +1,195 @@
+/**
+ *  Contains the immutable shape of a Tetris piece in one rotation,
+ *  shared by every piece in that shape and rotation.
+ * */
+
+/** The PieceType class describes one rotation state of one shape: the
+ *  four occupied cells of the square the piece rotates in, their bounding
+ *  box, the bitmask of every row of the square and the lowest occupied
+ *  cell of every column. There are exactly 28 instances, one per shape
+ *  and rotation, created when the class is loaded, and each links to the
+ *  types one quarter turn away. A Piece is a type and a position, so
+ *  rotating a piece only replaces its type, and every loop over the
+ *  cells of a piece takes four iterations.
+ *
+ *  Rotation counts clockwise quarter turns from Piece.initialTiles, and
+ *  a clockwise turn transposes the square and reflects it about its
+ *  vertical axis.
+ *  */
+public final class PieceType {
+
+  // cells of every piece
+  public static final int CELLS = 4;
+
+  // every type, index [shape][rotation]
+  private static final PieceType[][] TYPES =
+    new PieceType[Piece.possibleShapes.length][4];
+
+  public final char shape;      // char representation of the shape
+  public final int shapeIndex;  // index of shape in Piece.possibleShapes
+  public final int rotation;    // clockwise quarter turns, 0 to 3
+  public final int size;        // side of the square the piece rotates in
+
+  // bounding box of the cells within the square
+  public final int minRow;
+  public final int maxRow;
+  public final int minCol;
+  public final int maxCol;
+
+  // row and column of every cell within the square, top to bottom and
+  // left to right
+  private final int[] cellRows = new int[CELLS];
+  private final int[] cellCols = new int[CELLS];
+
+  // bitmask of every row of the square, bit 0 being its leftmost column
+  private final long[] rowMasks;
+
+  // lowest cell of every column of the square, -1 if the column is empty
+  private final int[] bottomProfile;
+
+  // types one quarter turn away, set once every type is created
+  private PieceType clockwise;
+  private PieceType counterClockwise;
+
+  //Computes every type once when the class is loaded
+  static {
+    for (int s = 0 ; s < Piece.possibleShapes.length ; s++) {
+      int[][] tiles = Piece.initialTiles[s];
+      for (int r = 0 ; r < 4 ; r++) {
+        TYPES[s][r] = new PieceType(s, r, tiles);
+
+        //Transpose tiles, reflect about vertical axis
+        int size = tiles.length;
+        int[][] rotated_tiles = new int[size][size];
+        for (int i = 0 ; i < size ; i++)
+          for (int j = 0 ; j < size ; j++)
+            rotated_tiles[i][size - 1 - j] = tiles[j][i];
+        tiles = rotated_tiles;
+      }
+      for (int r = 0 ; r < 4 ; r++) {
+        TYPES[s][r].clockwise        = TYPES[s][(r + 1) & 3];
+        TYPES[s][r].counterClockwise = TYPES[s][(r + 3) & 3];
+      }
+    }
+  }
+
+  //Constructor which takes in the shape, the rotation and the tiles of
+  //the rotation, a square with a 1 for every occupied cell
+  private PieceType(int shapeIndex, int rotation, int[][] tiles) {
+    this.shape      = Piece.possibleShapes[shapeIndex];
+    this.shapeIndex = shapeIndex;
+    this.rotation   = rotation;
+    this.size       = tiles.length;
+
+    rowMasks      = new long[size];
+    bottomProfile = new int[size];
+    java.util.Arrays.fill(bottomProfile, -1);
+    int cell = 0;
+    int min_row = size, max_row = -1, min_col = size, max_col = -1;
+    for (int i = 0 ; i < size ; i++)
+      for (int j = 0 ; j < size ; j++)
+        if (tiles[i][j] == 1) {
+          cellRows[cell]   = i;
+          cellCols[cell++] = j;
+          rowMasks[i]     |= 1L << j;
+          bottomProfile[j] = i;
+          min_row = Math.min(min_row, i);
+          max_row = Math.max(max_row, i);
+          min_col = Math.min(min_col, j);
+          max_col = Math.max(max_col, j);
+        }
+    minRow = min_row;
+    maxRow = max_row;
+    minCol = min_col;
+    maxCol = max_col;
+  }
+
+  /**
+   * Returns the type of a shape in a rotation
+   * @param shapeIndex index of the shape in Piece.possibleShapes
+   * @param rotation clockwise quarter turns, any number
+   * @return the shared type
+   ***********************************************************/
+  public static PieceType of(int shapeIndex, int rotation) {
+    return TYPES[shapeIndex][rotation & 3];
+  }
+
+  /**
+   * Returns the type of a shape in its initial rotation
+   * @param shape char representation of the shape
+   * @return the shared type
+   * @throws IllegalArgumentException if the char is not a shape
+   ***********************************************************/
+  public static PieceType of(char shape) {
+    int shapeIndex = Piece.shapeIndex(shape);
+    if (shapeIndex < 0)
+      throw new IllegalArgumentException("not a shape: '" + shape + "'");
+    return TYPES[shapeIndex][0];
+  }
+
+  /**
+   * Returns the type one clockwise quarter turn away
+   * @return the rotated type
+   ***********************************************************/
+  public PieceType clockwise() {
+    return clockwise;
+  }
+
+  /**
+   * Returns the type one counterclockwise quarter turn away
+   * @return the rotated type
+   ***********************************************************/
+  public PieceType counterClockwise() {
+    return counterClockwise;
+  }
+
+  /**
+   * Returns the row of a cell within the square
+   * @param cell index of the cell, 0 to CELLS - 1
+   * @return row of the cell
+   ***********************************************************/
+  public int cellRow(int cell) {
+    return cellRows[cell];
+  }
+
+  /**
+   * Returns the column of a cell within the square
+   * @param cell index of the cell, 0 to CELLS - 1
+   * @return column of the cell
+   ***********************************************************/
+  public int cellCol(int cell) {
+    return cellCols[cell];
+  }
+
+  /**
+   * Returns the occupied cells of one row of the square as a bitmask
+   * @param row row of the square
+   * @return bitmask of the cells, bit 0 being the leftmost column
+   ***********************************************************/
+  public long rowMask(int row) {
+    return rowMasks[row];
+  }
+
+  /**
+   * Returns the bitmask of every row of the square, which must not be
+   * modified
+   * @return bitmask of every row
+   ***********************************************************/
+  long[] rowMasks() {
+    return rowMasks;
+  }
+
+  /**
+   * Returns the lowest cell of every column of the square, -1 for empty
+   * columns, which must not be modified
+   * @return lowest cell of every column
+   ***********************************************************/
+  int[] bottomProfile() {
+    return bottomProfile;
+  }
+
+  @Override
+  public String toString() {
+    return shape + "/" + rotation;
+  }
+}
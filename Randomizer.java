@@ -0,0 +1,44 @@
+/**
+ *  Contains the seedable random number generator which picks the shapes
+ *  of new pieces in a game of Tetris.
+ * */
+
+/** The Randomizer class generates the shape sequence of a single game. It
+ *  implements the SplitMix64 generator, the same algorithm as 
+ *  java.util.SplittableRandom, but keeps its whole state in one public long
+ *  so a game can be saved and resumed on exactly the same sequence. Each
+ *  game owns its Randomizer, so games never share or contend on one.
+ * */
+public class Randomizer {
+
+  // odd constant added to the state on every step
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  // the entire state of the generator
+  public long state;
+
+  //Constructor which takes in the seed of the sequence
+  public Randomizer(long seed) {
+    state = seed;
+  }
+
+  /** Advances the generator and returns the next 64 random bits
+   * @param none
+   * @return next random long
+   ***********************************************************/
+  public long nextLong() {
+    long z = (state += GOLDEN_GAMMA);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /** Returns the index of a random shape in Piece.possibleShapes
+   * @param none
+   * @return random shape index
+   ***********************************************************/
+  public int nextShape() {
+    // maps the top 32 bits onto the range by multiplication
+    return (int) (((nextLong() >>> 32) * Piece.possibleShapes.length) >>> 32);
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ *  Contains the replayer which rebuilds a game of Tetris from its Journal.
+ * */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/** The Replay class feeds the commands of a journal back through a game
+ *  started from the first keyframe, or from Tetris(seed) for a version 1
+ *  journal, which reproduces the original game exactly. Commands are
+ *  applied as fast as the engine runs, with no waiting between them, so a
+ *  replay takes far less time than the game.
+ *
+ *  The file is mapped once when the Replay is opened, and seek jumps to
+ *  any piece of the game through the keyframe index: it loads the last
+ *  keyframe at or before the piece and replays only the commands after
+ *  it, so its cost is bounded by the keyframe interval rather than the
+ *  length of the game. A journal which was not closed has no index, in
+ *  which case the keyframes are found by scanning the file once.
+ *  */
+public class Replay implements Closeable {
+
+  // offset of the pieces placed within a state, after the grid size and
+  // the lines cleared
+  private static final int PIECES_OFFSET = 2 + 2 + 4;
+
+  private final String filename;
+  private final FileChannel channel;
+  private final ByteBuffer input;
+  private final byte version;
+  private final long seed;
+
+  // range of the file holding commands and keyframes
+  private final int start;
+  private int end;
+
+  // pieces placed and file offset of every keyframe, in order
+  private long[] keyframePieces;
+  private long[] keyframeOffsets;
+  private int keyframes;
+
+  //Constructor which opens a journal and reads its keyframe index
+  public Replay(String filename) throws IOException {
+    this.filename = filename;
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException(filename + " is too large to map");
+      input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (input.remaining() < 13 || input.getInt() != Journal.MAGIC)
+        throw new IOException(filename + " is not a journal");
+      version = input.get();
+      if (version != 1 && version != Journal.VERSION)
+        throw new IOException(filename + " has an unknown journal version");
+      seed = input.getLong();
+      if (version > 1) {
+        if (input.remaining() < 4)
+          throw new IOException(filename + " is not a journal");
+        input.getInt(); // keyframe interval, only needed by the writer
+      }
+      start = input.position();
+      end   = input.limit();
+
+      if (version == 1) {
+        keyframePieces  = new long[0];
+        keyframeOffsets = new long[0];
+      } else if (!readIndex()) {
+        scanIndex();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the keyframe index written when the journal was closed
+   * @return false if the file has no valid index
+   ***********************************************************/
+  private boolean readIndex() {
+    int limit = input.limit();
+    if (limit - start < Journal.FOOTER_SIZE
+        || input.getInt(limit - 4) != Journal.FOOTER_MAGIC)
+      return false;
+    int count  = input.getInt(limit - Journal.FOOTER_SIZE);
+    long index = input.getLong(limit - Journal.FOOTER_SIZE + 4);
+    if (count < 0 || index < start
+        || index + 16L * count + Journal.FOOTER_SIZE != limit)
+      return false;
+
+    keyframes       = count;
+    keyframePieces  = new long[count];
+    keyframeOffsets = new long[count];
+    for (int i = 0 ; i < count ; i++) {
+      keyframePieces[i]  = input.getLong((int) index + 16 * i);
+      keyframeOffsets[i] = input.getLong((int) index + 16 * i + 8);
+    }
+    end = (int) index;
+    return true;
+  }
+
+  /**
+   * Builds the keyframe index by scanning the file, and ends the replay
+   * before a keyframe cut short by the end of the file
+   ***********************************************************/
+  private void scanIndex() {
+    keyframePieces  = new long[16];
+    keyframeOffsets = new long[16];
+    int position = start;
+    while (position < end) {
+      if (input.get(position) != Journal.KEYFRAME) {
+        position++;
+        continue;
+      }
+      if (position + 1 + PIECES_OFFSET + 8 > end
+          || position + 1 + keyframeSize(position) > end) {
+        end = position;
+        break;
+      }
+      if (keyframes == keyframePieces.length) {
+        keyframePieces  = Arrays.copyOf(keyframePieces, 2 * keyframes);
+        keyframeOffsets = Arrays.copyOf(keyframeOffsets, 2 * keyframes);
+      }
+      keyframePieces[keyframes] =
+        input.getLong(position + 1 + PIECES_OFFSET);
+      keyframeOffsets[keyframes] = position;
+      keyframes++;
+      position += 1 + keyframeSize(position);
+    }
+  }
+
+  /**
+   * Returns the size of the state following a KEYFRAME byte
+   * @param position file offset of the KEYFRAME byte
+   * @return size of the state
+   ***********************************************************/
+  private int keyframeSize(int position) {
+    return Tetris.stateSize(input.getShort(position + 1),
+        input.getShort(position + 3));
+  }
+
+  /**
+   * Returns the number of keyframes in the journal
+   * @return number of keyframes, 0 for a version 1 journal
+   ***********************************************************/
+  public int keyframes() {
+    return keyframes;
+  }
+
+  /**
+   * Replays the first commands of the journal
+   * @param maxCommands number of commands to apply at most
+   * @return game in the state after the last command applied
+   * @throws IOException if the journal is corrupt
+   ***********************************************************/
+  public Tetris replay(long maxCommands) throws IOException {
+    return play(start, maxCommands, Long.MAX_VALUE);
+  }
+
+  /**
+   * Rebuilds the game as it was right after a piece was placed
+   * @param piece number of pieces placed
+   * @return game in the state after the command which placed the piece,
+   * or after the last command if the game has fewer pieces
+   * @throws IOException if the journal is corrupt
+   ***********************************************************/
+  public Tetris seek(long piece) throws IOException {
+    int index = Arrays.binarySearch(keyframePieces, 0, keyframes, piece);
+    if (index < 0)
+      index = Math.max(0, -index - 2);
+    int position = keyframes == 0 ? start : (int) keyframeOffsets[index];
+    return play(position, Long.MAX_VALUE, piece);
+  }
+
+  /**
+   * Applies commands from a position until enough commands were applied
+   * or enough pieces placed. Keyframes met after the first state are
+   * skipped, since the game replayed is already in that state.
+   * @param position file offset of the first command or keyframe
+   * @param maxCommands number of commands to apply at most
+   * @param piece number of pieces placed at which to stop
+   * @return game in the state after the last command applied
+   * @throws IOException if the journal is corrupt
+   ***********************************************************/
+  private Tetris play(int position, long maxCommands, long piece)
+    throws IOException {
+
+    Tetris tetris = version == 1 ? new Tetris(seed) : null;
+    Command[] commands = Command.values();
+    long applied = 0;
+    while (position < end && applied < maxCommands
+        && (tetris == null || tetris.piecesPlaced < piece)) {
+      int code = input.get(position);
+      if (code == Journal.KEYFRAME) {
+        if (tetris == null) {
+          ByteBuffer state = input.duplicate();
+          state.position(position + 1);
+          tetris = new Tetris(state);
+        }
+        position += 1 + keyframeSize(position);
+        continue;
+      }
+      if (tetris == null)
+        throw new IOException(filename + " does not start with a keyframe");
+      if (code < 0 || code >= commands.length)
+        throw new IOException(filename + " has an unknown command "
+            + code + " at offset " + position);
+      tetris.apply(commands[code]);
+      position++;
+      applied++;
+    }
+    if (tetris == null)
+      throw new IOException(filename + " has no keyframe");
+    return tetris;
+  }
+
+  /**
+   * Releases the file, the games returned stay valid
+   ***********************************************************/
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Replays a whole journal
+   * @param filename journal file
+   * @return game in the state after the last command
+   * @throws IOException if the file cannot be read or is not a journal
+   ***********************************************************/
+  public static Tetris replay(String filename) throws IOException {
+    return replay(filename, Long.MAX_VALUE);
+  }
+
+  /**
+   * Replays the first commands of a journal
+   * @param filename journal file
+   * @param maxCommands number of commands to apply at most
+   * @return game in the state after the last command applied
+   * @throws IOException if the file cannot be read or is not a journal
+   ***********************************************************/
+  public static Tetris replay(String filename, long maxCommands)
+    throws IOException {
+
+    try (Replay replay = new Replay(filename)) {
+      return replay.replay(maxCommands);
+    }
+  }
+
+  /**
+   * replays a journal and prints the final state of the game
+   * @param args: the journal file, and optionally the number of commands
+   * to replay or --seek=<piece> to jump to a piece
+   */
+  public static void main(String[] args) {
+    if (args.length != 1 && args.length != 2) {
+      System.err.println("Usage: java Replay <journal> "
+          + "[commands | --seek=<piece>]");
+      return;
+    }
+    try (Replay replay = new Replay(args[0])) {
+      long start = System.nanoTime();
+      Tetris tetris;
+      if (args.length == 2 && args[1].startsWith("--seek="))
+        tetris = replay.seek(Long.parseLong(args[1].substring(7)));
+      else
+        tetris = replay.replay(
+            args.length == 2 ? Long.parseLong(args[1]) : Long.MAX_VALUE);
+      double millis = (System.nanoTime() - start) / 1e6;
+      System.out.print(tetris);
+      System.out.println(tetris.piecesPlaced + " pieces replayed in "
+          + String.format("%.1f", millis) + " ms");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
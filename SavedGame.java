@@ -0,0 +1,73 @@
+/**
+ *  Contains a compact, read-only form of a game saved in the text format,
+ *  as produced by the BatchLoader.
+ * */
+
+/** The SavedGame class keeps what the text format holds, the lines
+ *  cleared, the active and next shapes and the grid, in one byte per cell,
+ *  without the bitboard, pieces and randomizer of a full Tetris. A game is
+ *  only built from it when it is played, with toTetris.
+ *  */
+public class SavedGame {
+
+  public final int linesCleared; // lines cleared when the game was saved
+  public final char activeShape; // shape of the active piece
+  public final char nextShape;   // shape of the next piece
+  public final int rows;         // number of rows of the grid
+  public final int cols;         // number of columns of the grid
+
+  // character of every cell, row by row, ' ' for an empty cell
+  private final byte[] cells;
+
+  //Constructor which takes in the contents of a save of a standard
+  //grid, cells holding Tetris.ROWS * Tetris.COLS characters row by row
+  public SavedGame(int linesCleared, char activeShape, char nextShape,
+      byte[] cells) {
+    this(linesCleared, activeShape, nextShape, Tetris.ROWS, Tetris.COLS,
+        cells);
+  }
+
+  //Constructor which takes in the contents of a save, cells holding
+  //rows * cols characters row by row
+  public SavedGame(int linesCleared, char activeShape, char nextShape,
+      int rows, int cols, byte[] cells) {
+    this.linesCleared = linesCleared;
+    this.activeShape  = activeShape;
+    this.nextShape    = nextShape;
+    this.rows         = rows;
+    this.cols         = cols;
+    this.cells        = cells;
+  }
+
+  /**
+   * Returns the character of a cell
+   * @param row row of the cell
+   * @param col column of the cell
+   * @return shape of the tile in the cell, or ' ' if it is empty
+   ***********************************************************/
+  public char cell(int row, int col) {
+    return (char) cells[row * cols + col];
+  }
+
+  /**
+   * Returns the occupied cells of a row as a bitmask, bit 0 being the
+   * leftmost column
+   * @param row row of the grid
+   * @return bitmask of the occupied cells
+   ***********************************************************/
+  public long rowMask(int row) {
+    long mask = 0;
+    for (int j = 0 ; j < cols ; j++)
+      if (cells[row * cols + j] != ' ')
+        mask |= 1L << j;
+    return mask;
+  }
+
+  /**
+   * Builds a playable game from the save
+   * @return new game in the saved state
+   ***********************************************************/
+  public Tetris toTetris() {
+    return new Tetris(this);
+  }
+}
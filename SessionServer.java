@@ -0,0 +1,474 @@
+/**
+ *  Contains a headless server which hosts many games of Tetris at once,
+ *  each played by a client over a local TCP connection.
+ * */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/** The SessionServer class gives every connection its own game, a
+ *  session, played with the keys of the text version of the game.
+ *
+ *  Every session runs on two virtual threads: a reader applying the
+ *  keys of the client and a writer sending frames back. Virtual threads
+ *  are cheap enough to block on a socket, so thousands of sessions need
+ *  only a few carrier threads. On a JVM without virtual threads the
+ *  server falls back to a pool of platform threads. The gravity of all
+ *  sessions runs on one TimerWheel, each session moving down at the
+ *  interval of its level, dropIntervals[linesCleared / LINES_PER_LEVEL].
+ *
+ *  Protocol, in ASCII lines: every character the client sends is a key,
+ *  a d s w z and space as in Tetris.play, o to get the text save of the
+ *  game and q to end the session. Other characters are ignored. The
+ *  server sends messages made of a header line, a body and a line holding
+ *  only a dot:
+ *    frame   body is the toString of the game after the last command
+ *    save    body is the game in the format of Tetris.outputToFile
+ *    over    body is the toString of the finished game, after which the
+ *            session ends
+ *
+ *  A client which reads slower than its game changes is only sent the
+ *  latest frame: frames not yet written are replaced rather than queued,
+ *  so a slow client costs no memory and never holds up its game. Saves
+ *  are never dropped; a client asking for a save before it read the
+ *  previous one is held up until it reads it.
+ *  */
+public class SessionServer implements Closeable {
+
+  // time in milliseconds between two moves down of the gravity at each
+  // level when none are given
+  public static final long[] DEFAULT_DROP_INTERVALS =
+  {500, 450, 400, 350, 300, 250, 200, 160, 130, 100};
+  public static final int LINES_PER_LEVEL = 10;
+
+  private final ServerSocket server;
+  private final ExecutorService threads = newSessionExecutor();
+  private final TimerWheel gravity = new TimerWheel();
+  private final long[] dropIntervals;
+
+  // sessions currently connected
+  private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+  //Constructor which listens on a port of the loopback address, 0 for
+  //any free port, with gravity every dropMillis at every level, or none if
+  //dropMillis is 0
+  public SessionServer(int port, long dropMillis) throws IOException {
+    this(port, dropMillis > 0 ? new long[] {dropMillis} : new long[0]);
+  }
+
+  //Constructor which listens on a port of the loopback address, 0 for
+  //any free port, with the gravity interval in milliseconds of every
+  //level, the last one holding for all higher levels, or no gravity if
+  //there are none
+  public SessionServer(int port, long[] dropIntervals) throws IOException {
+    this.dropIntervals = dropIntervals.clone();
+    server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    threads.execute(this::accept);
+  }
+
+  /**
+   * Creates an executor which runs every task on a new virtual thread,
+   * or on a cached pool of platform threads before Java 21
+   * @return the executor
+   ***********************************************************/
+  static ExecutorService newSessionExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "session");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  public int port() {
+    return server.getLocalPort();
+  }
+
+  public int sessions() {
+    return sessions.size();
+  }
+
+  /**
+   * Returns how late the gravity of the sessions runs, which grows when
+   * the server has more sessions than it can keep up with
+   * @return metrics of the gravity timer
+   ***********************************************************/
+  public TimerWheel.Metrics metrics() {
+    return gravity.metrics();
+  }
+
+  /**
+   * Accepts connections until the server is closed, starting a session
+   * for each
+   ***********************************************************/
+  private void accept() {
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        socket.setTcpNoDelay(true);
+        Session session = new Session(socket);
+        threads.execute(session::read);
+        threads.execute(session::write);
+        session.schedule();
+      } catch (IOException | RejectedExecutionException e) {
+        // the server was closed
+      }
+    }
+  }
+
+  /**
+   * Stops accepting connections and ends every session
+   ***********************************************************/
+  @Override
+  public void close() throws IOException {
+    server.close();
+    for (Session session : sessions)
+      session.close();
+    gravity.close();
+    threads.shutdownNow();
+  }
+
+  /** The Mailbox class holds the messages of one session waiting for its
+   *  writer: the latest frame, which replaces any frame not yet taken, and
+   *  at most one save, which is taken before the frame. */
+  private static class Mailbox {
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private String frame;
+    private String save;
+    private boolean closed;
+
+    /**
+     * Replaces the frame waiting to be written
+     * @param message frame message
+     ***********************************************************/
+    void publish(String message) {
+      lock.lock();
+      try {
+        frame = message;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Adds a save, waiting for the previous one to be taken
+     * @param message save message
+     ***********************************************************/
+    void reply(String message) throws InterruptedException {
+      lock.lock();
+      try {
+        while (save != null && !closed)
+          changed.await();
+        save = message;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Waits until no save is asked for or waiting to be taken, so a client
+     * has at most one save in flight
+     * @param asked saves asked for and not yet put in the mailbox
+     ***********************************************************/
+    void awaitSave(AtomicInteger asked) throws InterruptedException {
+      lock.lock();
+      try {
+        // a save is put in the mailbox, which signals, right after it is
+        // taken from asked
+        while ((asked.get() > 0 || save != null) && !closed)
+          changed.await();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Waits for the next message, saves first
+     * @return the message, or null once the mailbox is closed and empty
+     ***********************************************************/
+    String take() throws InterruptedException {
+      lock.lock();
+      try {
+        while (save == null && frame == null && !closed)
+          changed.await();
+        String message = save != null ? save : frame;
+        if (save != null)
+          save = null;
+        else
+          frame = null;
+        changed.signalAll();
+        return message;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Lets the writer finish once the messages left are taken
+     ***********************************************************/
+    void close() {
+      lock.lock();
+      try {
+        closed = true;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** The Session class is one connected client and its game. The game is
+   *  an actor: the reader and the gravity only add commands to a
+   *  CommandQueue, and one drain at a time, running on a session thread,
+   *  applies them all and publishes one frame for the batch. */
+  private class Session {
+
+    private final Socket socket;
+    private final Tetris tetris = new Tetris();
+    private final CommandQueue commands = new CommandQueue();
+    private final Mailbox mailbox = new Mailbox();
+    private final AtomicBoolean ended = new AtomicBoolean();
+
+    // true while a drain is scheduled or running
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // saves asked for by the client and not yet taken by a drain
+    private final AtomicInteger saves = new AtomicInteger();
+
+    // drop interval of the level of the game, set by the drain
+    private volatile long interval = interval();
+
+    // next move down of the gravity
+    private volatile TimerWheel.Timeout fall;
+
+    Session(Socket socket) {
+      this.socket = socket;
+      sessions.add(this);
+      mailbox.publish(frame());
+    }
+
+    /**
+     * Queues the keys of the client until it quits or disconnects
+     ***********************************************************/
+    void read() {
+      // the input is not closed here, which would close the socket
+      // before the writer is done with it
+      try {
+        Reader input = new BufferedReader(new InputStreamReader(
+              socket.getInputStream(), StandardCharsets.US_ASCII));
+        int key;
+        while (!ended.get() && (key = input.read()) != -1 && key != 'q') {
+          if (key == 'o') {
+            mailbox.awaitSave(saves);
+            saves.incrementAndGet();
+            submit();
+          } else {
+            Command command = Command.fromKey((char) key);
+            if (command != null) {
+              commands.offer(command);
+              submit();
+            }
+          }
+        }
+      } catch (IOException | InterruptedException e) {
+        // the client disconnected or the server was closed
+      } finally {
+        end();
+      }
+    }
+
+    /**
+     * Schedules a drain unless one is already scheduled or running
+     ***********************************************************/
+    private void submit() {
+      if (draining.compareAndSet(false, true)) {
+        try {
+          threads.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+          // the server was closed
+        }
+      }
+    }
+
+    /**
+     * Applies every queued command, publishes the game once and answers
+     * the saves asked for, until nothing is left to do. Only one drain
+     * runs at a time, so the game is only touched by one thread at once.
+     ***********************************************************/
+    private void drain() {
+      do {
+        try {
+          // saves are read first, so they include every command queued
+          // before the client asked for them
+          int asked = saves.getAndSet(0);
+          if (commands.drain(tetris) > 0) {
+            interval = interval();
+            changed();
+          }
+          for (int i = 0 ; i < asked && !ended.get() ; i++)
+            mailbox.reply(save());
+        } catch (InterruptedException e) {
+          end();
+        } finally {
+          draining.set(false);
+        }
+        // a command queued after the last poll but before draining was
+        // cleared found a drain running and did not schedule another
+      } while ((!commands.isEmpty() || saves.get() > 0) && !ended.get()
+          && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Sends the messages of the mailbox until the session ends
+     ***********************************************************/
+    void write() {
+      try (Writer output = new BufferedWriter(new OutputStreamWriter(
+              socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+        String message;
+        while ((message = mailbox.take()) != null) {
+          output.write(message);
+          output.flush();
+        }
+      } catch (IOException | InterruptedException e) {
+        // the client disconnected or the server was closed
+      } finally {
+        close();
+      }
+    }
+
+    /**
+     * Schedules the next move down at the interval of the level of the
+     * game, unless the session ended or there is no gravity
+     ***********************************************************/
+    void schedule() {
+      if (dropIntervals.length == 0 || ended.get())
+        return;
+      try {
+        fall = gravity.schedule(this::fall, interval, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // the server was closed
+      }
+      // end may have missed the timeout scheduled after it
+      if (ended.get() && fall != null)
+        fall.cancel();
+    }
+
+    /**
+     * Queues a move down and schedules the next, run by the gravity timer
+     ***********************************************************/
+    private void fall() {
+      commands.offer(Command.TICK);
+      submit();
+      schedule();
+    }
+
+    /**
+     * Returns the drop interval of the level of the game
+     * @return interval in milliseconds, 0 if there is no gravity
+     ***********************************************************/
+    private long interval() {
+      if (dropIntervals.length == 0)
+        return 0;
+      int level = tetris.linesCleared / LINES_PER_LEVEL;
+      return dropIntervals[Math.min(level, dropIntervals.length - 1)];
+    }
+
+    /**
+     * Publishes the game after a command, and ends the session when the
+     * game is over. Called by the drain.
+     ***********************************************************/
+    private void changed() {
+      mailbox.publish(frame());
+      if (tetris.isGameover)
+        end();
+    }
+
+    private String frame() {
+      GameSnapshot view = tetris.snapshot();
+      return message(view.isGameover ? "over" : "frame", view.toString());
+    }
+
+    private String save() {
+      StringWriter text = new StringWriter();
+      PrintWriter output = new PrintWriter(text);
+      tetris.outputTo(output);
+      output.flush();
+      return message("save", text.toString());
+    }
+
+    private String message(String header, String body) {
+      StringBuilder message = new StringBuilder(body.length() + 16);
+      message.append(header).append('\n').append(body);
+      if (body.isEmpty() || body.charAt(body.length() - 1) != '\n')
+        message.append('\n');
+      return message.append(".\n").toString();
+    }
+
+    /**
+     * Ends the session once, letting the writer send what is left
+     ***********************************************************/
+    private void end() {
+      if (ended.compareAndSet(false, true)) {
+        sessions.remove(this);
+        mailbox.close();
+        TimerWheel.Timeout timeout = fall;
+        if (timeout != null)
+          timeout.cancel();
+      }
+    }
+
+    /**
+     * Ends the session and closes its connection
+     ***********************************************************/
+    void close() {
+      end();
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  /**
+   * runs a server until it is killed, printing the number of sessions
+   * and the lateness of the gravity every ten seconds
+   * @param args: optionally the port, 7777 by default, and the time in
+   * milliseconds between two moves down at every level, separated by
+   * commas, 0 for no gravity
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+    long[] intervals = args.length > 1
+      ? Arrays.stream(args[1].split(",")).mapToLong(Long::parseLong)
+          .filter(interval -> interval > 0).toArray()
+      : DEFAULT_DROP_INTERVALS;
+    SessionServer server = new SessionServer(port, intervals);
+    System.out.println("Serving Tetris on localhost:" + server.port());
+    try {
+      // session threads are daemons, which do not keep the JVM running
+      while (true) {
+        Thread.sleep(10000);
+        System.out.println(server.sessions() + " sessions, gravity "
+            + server.metrics());
+        server.gravity.resetMetrics();
+      }
+    } catch (InterruptedException e) {
+      server.close();
+    }
+  }
+}
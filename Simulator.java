@@ -0,0 +1,134 @@
+/**
+ *  Contains a headless engine which plays many games of Tetris to
+ *  completion without a terminal or GUI.
+ * */
+
+import java.util.stream.*;
+
+/** The Simulator class plays games of Tetris with a MovePolicy instead of
+ *  user input. Games of one run are played in parallel on all cores. Each
+ *  game gets its own seed, drawn in order from the seed of the run, so a
+ *  run and every game in it can be reproduced exactly from its seed.
+ *  */
+public class Simulator {
+
+  /** The Result class holds the outcome of one simulated game */
+  public static class Result {
+
+    public final long seed;          // seed the game was created with
+    public final long piecesPlaced;  // pieces consolidated in the game
+    public final int linesCleared;   // lines cleared in the game
+    public final boolean isGameover; // false if the game hit the piece limit
+
+    public Result(Tetris tetris, long seed) {
+      this.seed         = seed;
+      this.piecesPlaced = tetris.piecesPlaced;
+      this.linesCleared = tetris.linesCleared;
+      this.isGameover   = tetris.isGameover;
+    }
+
+    @Override
+    public String toString() {
+      return "seed " + seed + ": " + piecesPlaced + " pieces, "
+        + linesCleared + " lines" + (isGameover ? ", game over" : "");
+    }
+  }
+
+  // policy that hard drops every piece where it spawns
+  public static final MovePolicy DROP = tetris -> {
+    tetris.drop();
+    tetris.move(Direction.DOWN);
+  };
+
+  // policy that spreads pieces over the board by cycling through
+  // rotations and columns, deterministic in the number of pieces placed
+  public static final MovePolicy SPREAD = tetris -> {
+    int turns = (int) (tetris.piecesPlaced % 4);
+    int shift = (int) (tetris.piecesPlaced * 3 % tetris.cols)
+      - (tetris.cols / 2 - 1);
+    for (int i = 0 ; i < turns ; i++)
+      tetris.rotate();
+    for (int i = 0 ; i < Math.abs(shift) ; i++)
+      tetris.move(shift < 0 ? Direction.LEFT : Direction.RIGHT);
+    tetris.drop();
+    tetris.move(Direction.DOWN);
+  };
+
+  /**
+   * Returns the seeds of the games of a run
+   * @param games number of games in the run
+   * @param seed seed of the run
+   * @return seed of every game, in order
+   ***********************************************************/
+  public static long[] gameSeeds(int games, long seed) {
+    Randomizer randomizer = new Randomizer(seed);
+    long[] seeds = new long[games];
+    for (int i = 0 ; i < games ; i++)
+      seeds[i] = randomizer.nextLong();
+    return seeds;
+  }
+
+  /**
+   * Plays one game until it is over or maxPieces pieces were placed
+   * @param seed seed of the game
+   * @param policy decides the moves of the game
+   * @param maxPieces limit on the number of pieces placed
+   * @return result of the game
+   ***********************************************************/
+  public static Result playGame(long seed, MovePolicy policy, long maxPieces) {
+    Tetris tetris = new Tetris(seed);
+
+    while (!tetris.isGameover && tetris.piecesPlaced < maxPieces) {
+      long placed = tetris.piecesPlaced;
+      policy.play(tetris);
+      //places the piece if the policy left it active
+      if (!tetris.isGameover && tetris.piecesPlaced == placed) {
+        tetris.drop();
+        tetris.move(Direction.DOWN);
+      }
+    }
+    return new Result(tetris, seed);
+  }
+
+  /**
+   * Plays a run of games in parallel
+   * @param games number of games to play
+   * @param seed seed of the run
+   * @param policy decides the moves of every game
+   * @param maxPieces limit on the number of pieces placed per game
+   * @return result of every game, in the order of gameSeeds
+   ***********************************************************/
+  public static Result[] run(int games, long seed, MovePolicy policy,
+      long maxPieces) {
+    long[] seeds = gameSeeds(games, seed);
+    return IntStream.range(0, games).parallel()
+      .mapToObj(i -> playGame(seeds[i], policy, maxPieces))
+      .toArray(Result[]::new);
+  }
+
+  /**
+   * plays a run of games and prints how fast pieces were placed
+   * @param args: number of games, seed and piece limit per game, all
+   * optional
+   */
+  public static void main(String[] args) {
+    int games      = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    long seed      = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    long maxPieces = args.length > 2 ? Long.parseLong(args[2]) : 100000;
+
+    long start = System.nanoTime();
+    Result[] results = run(games, seed, SPREAD, maxPieces);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long pieces = 0;
+    long lines  = 0;
+    for (Result result : results) {
+      pieces += result.piecesPlaced;
+      lines  += result.linesCleared;
+    }
+    System.out.println(games + " games, " + pieces + " pieces, " + lines
+        + " lines in " + String.format("%.3f", seconds) + " s");
+    System.out.println(String.format("%.0f", pieces / seconds)
+        + " pieces per second");
+  }
+}
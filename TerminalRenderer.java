@@ -0,0 +1,322 @@
+/**
+ *  Contains a renderer which draws a game of Tetris on an ANSI terminal
+ *  and the raw key loop of the text version of the game.
+ * */
+
+import java.io.*;
+import java.util.*;
+
+/** The TerminalRenderer class draws a game in the layout of
+ *  Tetris.toString into a frame buffer, which is kept between frames, and
+ *  writes only the cells that changed since the previous frame, each run
+ *  of changes after one ANSI cursor move. A frame where one piece moved
+ *  costs a few dozen bytes instead of the whole board.
+ *
+ *  Every renderer draws at its own origin, so several games can be shown
+ *  side by side in one terminal, each with its own renderer.
+ *  */
+public class TerminalRenderer {
+
+  private static final String ESC = "\u001b[";
+
+  // size of the drawn area of a standard game, in characters
+  public static final int WIDTH  = width(Tetris.COLS);
+  public static final int HEIGHT = height(Tetris.ROWS);
+
+  // unchanged cells between two changes that are written again rather
+  // than moving the cursor over them, which takes about as many bytes
+  private static final int MAX_GAP = 4;
+
+  private final PrintStream out;
+
+  // top left corner of the drawn area, counted from 0
+  private final int originRow;
+  private final int originCol;
+
+  // size of the drawn area, set by the grid of the game drawn
+  private int width;
+  private int height;
+
+  // frame being drawn, and the frame shown on the terminal
+  private char[][] frame = new char[0][0];
+  private char[][] shown = new char[0][0];
+
+  // escape sequences and cells of one frame, reused between frames
+  private final StringBuilder output = new StringBuilder();
+
+  // message shown under the board
+  private String status = "";
+
+  //Constructor which draws at the top left corner of the terminal
+  public TerminalRenderer(PrintStream out) {
+    this(out, 0, 0);
+  }
+
+  //Constructor which draws at the given row and column of the terminal
+  public TerminalRenderer(PrintStream out, int originRow, int originCol) {
+    this.out       = out;
+    this.originRow = originRow;
+    this.originCol = originCol;
+  }
+
+  /**
+   * Returns the width of the drawn area of a game
+   * @param cols number of columns of the grid
+   * @return width in characters
+   ***********************************************************/
+  public static int width(int cols) {
+    return Math.max(2 * cols + 3, 32);
+  }
+
+  /**
+   * Returns the height of the drawn area of a game
+   * @param rows number of rows of the grid
+   * @return height in characters
+   ***********************************************************/
+  public static int height(int rows) {
+    return rows + 5;
+  }
+
+  /**
+   * Sets the message shown under the board from the next frame on
+   * @param status message, cut to the width of the board
+   ***********************************************************/
+  public void setStatus(String status) {
+    this.status = status;
+  }
+
+  /**
+   * Forgets the frame shown, so the next frame is drawn in full, for
+   * example after the screen was cleared
+   ***********************************************************/
+  public void invalidate() {
+    for (char[] line : shown)
+      Arrays.fill(line, '\0');
+  }
+
+  /**
+   * Draws the latest snapshot of a game and writes the cells that changed
+   * since the previous frame
+   * @param tetris game to draw
+   ***********************************************************/
+  public void render(Tetris tetris) {
+    render(tetris.snapshot());
+  }
+
+  /**
+   * Draws a snapshot of a game and writes the cells that changed since
+   * the previous frame. Can be called from any thread, while the game
+   * goes on
+   * @param view snapshot of the game to draw
+   ***********************************************************/
+  public void render(GameSnapshot view) {
+    if (width != width(view.cols) || height != height(view.rows)) {
+      // a grid of another size is drawn in full
+      width  = width(view.cols);
+      height = height(view.rows);
+      frame  = new char[height][width];
+      shown  = new char[height][width];
+    }
+    draw(view);
+    output.setLength(0);
+    for (int i = 0 ; i < height ; i++) {
+      int j = 0;
+      while (j < width) {
+        if (frame[i][j] == shown[i][j]) {
+          j++;
+          continue;
+        }
+        output.append(ESC).append(originRow + i + 1).append(';')
+          .append(originCol + j + 1).append('H');
+        int end = j;
+        for (int k = j ; k < width && k - end <= MAX_GAP ; k++)
+          if (frame[i][k] != shown[i][k])
+            end = k + 1;
+        for ( ; j < end ; j++) {
+          output.append(frame[i][j]);
+          shown[i][j] = frame[i][j];
+        }
+      }
+    }
+    if (output.length() > 0) {
+      out.append(output);
+      out.flush();
+    }
+  }
+
+  /**
+   * Draws a snapshot of a game into the frame buffer
+   * @param view snapshot of the game to draw
+   ***********************************************************/
+  private void draw(GameSnapshot view) {
+    for (char[] line : frame)
+      Arrays.fill(line, ' ');
+
+    int col = put(0, 0, "Lines cleared: ");
+    put(0, col, view.linesCleared);
+    col = put(1, 0, "Next piece: ");
+    frame[1][col] = view.nextShape;
+    if (view.storedShape != ' ') {
+      col = put(1, col + 1, "  Stored piece: ");
+      frame[1][col] = view.storedShape;
+    }
+
+    border(2, view.cols);
+    for (int i = 0 ; i < view.rows ; i++) {
+      frame[3 + i][0] = '|';
+      for (int j = 0 ; j < view.cols ; j++)
+        frame[3 + i][2 + 2 * j] = view.shown(i, j);
+      frame[3 + i][2 * view.cols + 2] = '|';
+    }
+    border(3 + view.rows, view.cols);
+
+    put(height - 1, 0, view.isGameover ? "Game over" : status);
+  }
+
+  /**
+   * Draws a border line of the board
+   * @param line line of the frame
+   * @param cols number of columns of the grid
+   ***********************************************************/
+  private void border(int line, int cols) {
+    frame[line][0] = '|';
+    for (int j = 0 ; j < cols ; j++)
+      frame[line][2 + 2 * j] = '-';
+    frame[line][2 * cols + 2] = '|';
+  }
+
+  /**
+   * Writes text into a line of the frame, cut at its right edge
+   * @param line line of the frame
+   * @param col column of the first character
+   * @param text text to write
+   * @return column after the text
+   ***********************************************************/
+  private int put(int line, int col, String text) {
+    for (int i = 0 ; i < text.length() && col < width ; i++)
+      frame[line][col++] = text.charAt(i);
+    return col;
+  }
+
+  /**
+   * Writes a number into a line of the frame without creating a String
+   * @param line line of the frame
+   * @param col column of the first digit
+   * @param number number to write, not negative
+   ***********************************************************/
+  private void put(int line, int col, long number) {
+    int digits = 1;
+    for (long rest = number / 10 ; rest > 0 ; rest /= 10)
+      digits++;
+    for (int i = digits - 1 ; i >= 0 ; i--, number /= 10)
+      if (col + i < width)
+        frame[line][col + i] = (char) ('0' + number % 10);
+  }
+
+  /**
+   * Clears the terminal and hides the cursor
+   * @param out stream of the terminal
+   ***********************************************************/
+  public static void clearScreen(PrintStream out) {
+    out.print(ESC + "2J" + ESC + "?25l");
+    out.flush();
+  }
+
+  /**
+   * Moves the cursor below an area of the given height and shows it
+   * again
+   * @param out stream of the terminal
+   * @param height lines used from the top of the terminal
+   ***********************************************************/
+  public static void restoreScreen(PrintStream out, int height) {
+    out.print(ESC + (height + 1) + ";1H" + ESC + "?25h");
+    out.flush();
+  }
+
+  /**
+   * Switches the controlling terminal between raw input, where every key
+   * is read as it is typed and not echoed, and line input
+   * @param raw true for raw input, false to restore line input
+   * @throws IOException if stty cannot be run
+   ***********************************************************/
+  public static void rawInput(boolean raw) throws IOException {
+    ProcessBuilder stty = raw
+      ? new ProcessBuilder("stty", "-icanon", "-echo", "min", "1")
+      : new ProcessBuilder("stty", "icanon", "echo");
+    stty.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/tty")));
+    try {
+      if (stty.start().waitFor() != 0)
+        throw new IOException("stty failed");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while running stty", e);
+    }
+  }
+
+  /**
+   * Plays a game with raw key input, the keys being those of
+   * Tetris.play, which no longer need Enter after them
+   * @param tetris game to play
+   * @throws IOException if the terminal cannot be switched to raw input
+   ***********************************************************/
+  public static void play(Tetris tetris) throws IOException {
+    TerminalRenderer renderer = new TerminalRenderer(System.out);
+    rawInput(true);
+    try {
+      clearScreen(System.out);
+      renderer.setStatus("a d s w z space, o to save, q to quit");
+      renderer.render(tetris);
+      int key;
+      while (!tetris.isGameover && (key = System.in.read()) != -1) {
+        if (key == 'q')
+          break;
+        if (key == 'o') {
+          try {
+            tetris.outputToFile();
+            renderer.setStatus("saved to output.txt");
+          } catch (IOException e) {
+            renderer.setStatus("cannot save: " + e.getMessage());
+          }
+        }
+        Command command = Command.fromKey((char) key);
+        if (command != null)
+          tetris.apply(command);
+        renderer.render(tetris);
+      }
+    } finally {
+      restoreScreen(System.out, height(tetris.rows));
+      rawInput(false);
+    }
+  }
+
+  /**
+   * spectates games played by the Bot side by side, drawing every game
+   * after each piece
+   * @param args: optionally the number of games, 3 by default
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    Tetris[] games = new Tetris[count];
+    TerminalRenderer[] renderers = new TerminalRenderer[count];
+    for (int i = 0 ; i < count ; i++) {
+      games[i]     = new Tetris(i);
+      renderers[i] = new TerminalRenderer(System.out, 0, i * (WIDTH + 2));
+    }
+
+    Bot bot = new Bot();
+    clearScreen(System.out);
+    boolean playing = true;
+    while (playing) {
+      playing = false;
+      for (int i = 0 ; i < count ; i++) {
+        if (!games[i].isGameover) {
+          bot.play(games[i]);
+          playing = true;
+        }
+        renderers[i].render(games[i]);
+      }
+      Thread.sleep(50);
+    }
+    restoreScreen(System.out, HEIGHT);
+  }
+}
@@ -6,12 +6,41 @@
 
 import java.util.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 /** The Tetris class models a game of Tetris, taking in user input to move
  *  and rotate pieces as well as save the current game onto a .txt file.
  *  */
 public class Tetris {
 
+  // dimensions of the grid of a standard game
+  public static final int ROWS = 20;
+  public static final int COLS = 10;
+
+  // smallest grid every piece can spawn in, and largest grid, a row
+  // being the bits of a long and writeState writing the size as shorts
+  public static final int MIN_ROWS = 4;
+  public static final int MIN_COLS = 4;
+  public static final int MAX_ROWS = Short.MAX_VALUE;
+  public static final int MAX_COLS = Long.SIZE;
+
+  // dimensions of the grid of this game
+  public final int rows;
+  public final int cols;
+
+  // bitmask of a row with every column occupied
+  long fullRow;
+
+  // row of spaces shared by the empty rows of the grid, which is copied
+  // before it is written to like any shared row
+  private char[] blankRow;
+
+  // start of a binary snapshot written by save
+  public static final int SNAPSHOT_MAGIC = 0x54534156; // "TSAV"
+  public static final byte SNAPSHOT_VERSION = 1;
+
   public int linesCleared; // how many lines cleared so far
 
   public boolean isGameover;  // true if the game is over
@@ -33,71 +62,585 @@ public class Tetris {
   public char[][] grid;   // contains all consolidated pieces, each tile  
   // represented by a char of the piece's shape
   // a position stores a space char if it is empty
+  // rows may be shared with published snapshots and must not be written
+  // to from outside; replace a row and call syncBoard instead
+
+  // true for the rows of grid held by a published snapshot, which are
+  // copied before they are written to
+  private boolean[] rowShared;
+
+  // true for the chunks of GameSnapshot.CHUNK_ROWS rows written to since
+  // the last snapshot was published, which the next one copies
+  private boolean[] chunkChanged;
+
+  // true if grid changed since the last snapshot was published
+  private boolean gridChanged = true;
+
+  // snapshot of the game after the last command
+  private volatile GameSnapshot snapshot;
+
+  long[] board;   // bitboard kept in step with grid, bit j of board[i] is set
+  // if grid[i][j] is occupied, used for all collision and
+  // full row checks
+
+  int[] columnTop;  // row of the highest occupied cell of each column,
+  // rows if the column is empty
+
+  public long piecesPlaced; // how many pieces consolidated so far
+
+  long seed;              // seed the randomizer started from
+  Randomizer randomizer;  // picks the shape of every new piece of this game
+
+  Journal journal;  // records every command when set, may be null
+
+  History history;  // records every piece placed or held when set, may
+  // be null
+
+  long hash;  // Zobrist hash of the board, pieces and hold flag, kept up
+  // to date by consolidate, clearLines and hold
 
 
   //Default no-argument constructor
   public Tetris(){
-    // creates new grid, initializes to all space characters
-    grid = new char[20][10];
-    for ( int i = 0 ; i < 20 ; i++ ) {
-      for ( int j = 0 ; j < 10 ; j++ ) {
-        grid[i][j] = ' ';
-      }
-    }
+    this(Piece.random.nextLong());
+  }
+
+  //Constructor which takes in the seed of the shape sequence, two games 
+  //created with the same seed receive the same pieces
+  public Tetris(long seed){
+    this(ROWS, COLS, seed);
+  }
+
+  //Constructor which takes in the dimensions of the grid
+  public Tetris(int rows, int cols){
+    this(rows, cols, Piece.random.nextLong());
+  }
+
+  //Constructor which takes in the dimensions of the grid and the seed of 
+  //the shape sequence
+  public Tetris(int rows, int cols, long seed){
+    this.rows = rows;
+    this.cols = cols;
+    // creates new grid, every row is the shared row of spaces
+    allocate();
     //initializes instance variables
     linesCleared = 0;
     isGameover   = false;  
-    activePiece  = new Piece();
-    nextPiece    = new Piece();
+    this.seed    = seed;
+    randomizer   = new Randomizer(seed);
+    activePiece  = newPiece();
+    nextPiece    = newPiece();
+    hash         = Zobrist.of(this);
+    publish();
   }
 
   //Single argument constructor
+  //the grid has as many rows as the file has lines after the shapes,
+  //and as many columns as the first of them has characters
   public Tetris (String filename) throws IOException {
 
     Scanner input   = new Scanner(new File(filename));
-    String next_row = new String();
+    List<String> next_rows = new ArrayList<>();
     
-    //creates grid, reads in lines from input file
-    grid            = new char[20][10];
+    //reads in lines from input file
     linesCleared    = input.nextInt();
     input.nextLine();
-    activePiece     = new Piece(input.nextLine().charAt(0));
-    nextPiece       = new Piece(input.nextLine().charAt(0));
+    char active     = input.nextLine().charAt(0);
+    char next       = input.nextLine().charAt(0);
+    while ( input.hasNextLine() )
+      next_rows.add(input.nextLine());
+    while ( !next_rows.isEmpty() && next_rows.get(next_rows.size() - 1).isEmpty() )
+      next_rows.remove(next_rows.size() - 1);
     isGameover      = false;
+    seed            = Piece.random.nextLong();
+    randomizer      = new Randomizer(seed);
+
+    rows = next_rows.size();
+    cols = rows == 0 ? 0 : next_rows.get(0).length();
+    checkSize(filename);
+    if ( Piece.shapeIndex(active) < 0 || Piece.shapeIndex(next) < 0 )
+      throw new IOException(filename + ": unknown shape " 
+          + ( Piece.shapeIndex(active) < 0 ? active : next ));
+    allocate();
+    activePiece     = spawn(active);
+    nextPiece       = spawn(next);
 
    //copies characters from file 
-    for ( int i = 0 ; i < 20 ; i++ ) { 
-     next_row = input.nextLine();
-     for ( int j = 0 ; j < 10 ; j++ ){
-        grid[i][j] = next_row.charAt(j);
-     }
+    for ( int i = 0 ; i < rows ; i++ ) { 
+     if ( next_rows.get(i).length() != cols )
+       throw new IOException(filename + ": row " + i + " has " 
+           + next_rows.get(i).length() + " columns, expected " + cols);
+     grid[i] = next_rows.get(i).toCharArray();
+    }
+    syncBoard();
+  }
+
+  //Constructor which builds a game from a save loaded by the BatchLoader
+  public Tetris (SavedGame saved) {
+
+    rows            = saved.rows;
+    cols            = saved.cols;
+    allocate();
+    linesCleared    = saved.linesCleared;
+    activePiece     = spawn(saved.activeShape);
+    nextPiece       = spawn(saved.nextShape);
+    isGameover      = false;
+    seed            = Piece.random.nextLong();
+    randomizer      = new Randomizer(seed);
+
+    for ( int i = 0 ; i < rows ; i++ ) {
+      if ( saved.rowMask(i) == 0 )
+        continue;
+      grid[i] = new char[cols];
+      for ( int j = 0 ; j < cols ; j++ )
+        grid[i][j] = saved.cell(i, j);
+    }
+    syncBoard();
+  }
+
+  //Constructor which reads back a game written by writeState
+  public Tetris (ByteBuffer state) throws IOException {
+    rows = state.getShort();
+    cols = state.getShort();
+    checkSize("state");
+    allocate();
+
+    linesCleared = state.getInt();
+    piecesPlaced = state.getLong();
+    seed         = state.getLong();
+    randomizer   = new Randomizer(state.getLong());
+    byte flags   = state.get();
+    isGameover   = ( flags & 1 ) != 0;
+    usedHold     = ( flags & 2 ) != 0;
+
+    activePiece  = readPiece(state, cols);
+    if ( activePiece == null )
+      throw new IOException("state has no active piece");
+    byte rotation = state.get();
+    if ( rotation < 0 || rotation > 3 )
+      throw new IOException("state has an unknown rotation " + rotation);
+    activePiece.setRotation(rotation);
+    activePiece.rotateClockwiseNext = state.get() != 0;
+    activePiece.rowOffset = state.getInt();
+    activePiece.colOffset = state.getInt();
+    // checks the piece against an empty grid, every row being above top
+    if ( hasConflict(new long[0], rows, rows, fullRow, activePiece.type, 
+          activePiece.rowOffset, activePiece.colOffset) )
+      throw new IOException("state has an active piece off the grid");
+    nextPiece    = readPiece(state, cols);
+    storedPiece  = readPiece(state, cols);
+    if ( nextPiece == null )
+      throw new IOException("state has no next piece");
+
+    for ( int i = 0 ; i < rows ; i++ ) {
+      char[] row = new char[cols];
+      for ( int j = 0 ; j < cols ; j++ ) {
+        row[j] = (char) ( state.get() & 0xff );
+        if ( row[j] != ' ' && Piece.shapeIndex(row[j]) < 0 )
+          throw new IOException("state has an unknown cell " + row[j]);
+      }
+      grid[i] = row;
+    }
+    syncBoard();
+    // only the piece that ended the game may overlap the stack
+    if ( !isGameover && hasConflict(activePiece) )
+      throw new IOException("state has an active piece over the stack");
+  }
+
+/**
+ * Checks the dimensions read from a save
+ * @param source name of the save in the message
+ * @return none
+ * @throws IOException if the grid is smaller or larger than allowed
+ ***********************************************************/
+  private void checkSize(String source) throws IOException {
+    if ( rows < MIN_ROWS || rows > MAX_ROWS || cols < MIN_COLS 
+        || cols > MAX_COLS )
+      throw new IOException(source + " has an unsupported grid size of " 
+          + rows + " by " + cols);
+  }
+
+/**
+ * Creates the grid, every row being the shared row of spaces, and the 
+ * empty bitboard of the dimensions of the game
+ * @param - none
+ * @return - none
+ ***********************************************************/
+  private void allocate() {
+    if ( rows < MIN_ROWS || rows > MAX_ROWS || cols < MIN_COLS 
+        || cols > MAX_COLS )
+      throw new IllegalArgumentException("grid must have " + MIN_ROWS 
+          + " to " + MAX_ROWS + " rows and " + MIN_COLS + " to " 
+          + MAX_COLS + " columns");
+    fullRow   = fullRow(cols);
+    blankRow  = new char[cols];
+    Arrays.fill(blankRow, ' ');
+    grid      = new char[rows][];
+    Arrays.fill(grid, blankRow);
+    rowShared = new boolean[rows];
+    Arrays.fill(rowShared, true);
+    chunkChanged = new boolean[( rows + GameSnapshot.CHUNK_ROWS - 1 ) 
+      / GameSnapshot.CHUNK_ROWS];
+    Arrays.fill(chunkChanged, true);
+    board     = new long[rows];
+    columnTop = new int[cols];
+    Arrays.fill(columnTop, rows);
+  }
+
+/**
+ * Returns the bitmask of a full row
+ * @param cols number of columns of the grid
+ * @return bitmask with the lowest cols bits set
+ ***********************************************************/
+  static long fullRow(int cols) {
+    return cols == Long.SIZE ? -1L : ( 1L << cols ) - 1;
+  }
+
+/**
+ * Reads the shape of a piece written by writeState
+ * @param state buffer positioned at the shape
+ * @param cols number of columns of the grid
+ * @return new Piece at its spawn position, or null if there was none
+ ***********************************************************/
+  private static Piece readPiece(ByteBuffer state, int cols) 
+    throws IOException {
+    byte shape = state.get();
+    if ( shape == -1 )
+      return null;
+    if ( shape < 0 || shape >= Piece.possibleShapes.length )
+      throw new IOException("state has an unknown shape " + shape);
+    return new Piece(Piece.possibleShapes[shape], cols);
+  }
+
+/**
+ * Returns the number of bytes writeState writes for a standard game
+ * @param - none
+ * @return size of the state of a game
+ ***********************************************************/
+  public static int stateSize() {
+    return stateSize(ROWS, COLS);
+  }
+
+/**
+ * Returns the number of bytes writeState writes for a grid size
+ * @param rows number of rows of the grid
+ * @param cols number of columns of the grid
+ * @return size of the state of a game
+ ***********************************************************/
+  public static int stateSize(int rows, int cols) {
+    return 2 + 2 + 4 + 8 + 8 + 8 + 1 + 1 + 1 + 1 + 4 + 4 + 1 + 1 
+      + rows * cols;
+  }
+
+/**
+ * Writes the full state of the game: the grid size, lines cleared, 
+ * pieces placed, seed and randomizer state, the game over and hold 
+ * flags, the active piece with its rotation and position, the next and
+ * stored shapes and every cell of the grid
+ * @param state buffer with at least stateSize() bytes remaining
+ * @return none
+ ***********************************************************/
+  public void writeState(ByteBuffer state) {
+    state.putShort((short) rows).putShort((short) cols);
+    state.putInt(linesCleared).putLong(piecesPlaced);
+    state.putLong(seed).putLong(randomizer.state);
+    state.put((byte) ( ( isGameover ? 1 : 0 ) | ( usedHold ? 2 : 0 ) ));
+
+    state.put((byte) activePiece.type.shapeIndex);
+    state.put((byte) activePiece.type.rotation);
+    state.put((byte) ( activePiece.rotateClockwiseNext ? 1 : 0 ));
+    state.putInt(activePiece.rowOffset).putInt(activePiece.colOffset);
+    state.put((byte) nextPiece.type.shapeIndex);
+    state.put((byte) ( storedPiece == null ? -1 : storedPiece.type.shapeIndex ));
+
+    for ( int i = 0 ; i < rows ; i++ )
+      for ( int j = 0 ; j < cols ; j++ )
+        state.put((byte) grid[i][j]);
+  }
+
+/**
+ * Creates a piece with the next shape of this game's sequence
+ * @param - none
+ * @return - new Piece at its spawn position
+ ***********************************************************/
+  private Piece newPiece() {
+    return spawn(Piece.possibleShapes[randomizer.nextShape()]);
+  }
+
+/**
+ * Creates a piece at its spawn position, centered on the grid
+ * @param shape shape of the piece
+ * @return - new Piece at its spawn position
+ ***********************************************************/
+  private Piece spawn(char shape) {
+    return new Piece(shape, cols);
+  }
+
+/**
+ * Rebuilds the bitboard from the char grid, must be called after
+ * the grid has been written to directly
+ * @param - none
+ * @return - none
+ ***********************************************************/
+  public void syncBoard() {
+    board = new long[rows];
+    for ( int i = 0 ; i < rows ; i++ ) {
+      for ( int j = 0 ; j < cols ; j++ ) {
+        if ( grid[i][j] != ' ' )
+          board[i] |= 1L << j;
+      }
+    }
+    columnTop = new int[cols];
+    updateColumnTops(0);
+    hash = Zobrist.of(this);
+    Arrays.fill(chunkChanged, true);
+    gridChanged = true;
+    publish();
+  }
+
+/**
+ * Publishes a snapshot of the game, sharing the rows of the grid with 
+ * it. If the grid changed since the last snapshot, the chunks of rows 
+ * written to since then are copied with their bitboard and their rows 
+ * become shared, and every other chunk of the stack is taken from the 
+ * last snapshot. This costs the chunks written to plus one reference 
+ * per chunk of the stack; the empty chunks above the stack are left out
+ * @param - none
+ * @return - none
+ ***********************************************************/
+  private void publish() {
+    GameSnapshot last = snapshot;
+    if ( gridChanged || last == null ) {
+      int top    = stackTop();
+      int first  = top / GameSnapshot.CHUNK_ROWS;
+      int chunks = chunkChanged.length - first;
+      char[][][] stack = new char[chunks][][];
+      long[][] bits    = new long[chunks][];
+      for ( int c = first ; c < chunkChanged.length ; c++ ) {
+        char[][] shared = last == null ? null : last.rowChunk(c);
+        if ( !chunkChanged[c] && shared != null ) {
+          stack[c - first] = shared;
+          bits[c - first]  = last.boardChunk(c);
+          continue;
+        }
+        int from = c * GameSnapshot.CHUNK_ROWS;
+        int to   = Math.min(rows, from + GameSnapshot.CHUNK_ROWS);
+        stack[c - first] = Arrays.copyOfRange(grid, from, to);
+        bits[c - first]  = Arrays.copyOfRange(board, from, to);
+        Arrays.fill(rowShared, from, to, true);
+        chunkChanged[c] = false;
+      }
+      gridChanged = false;
+      snapshot = new GameSnapshot(this, top, stack, bits);
+    }
+    else
+      snapshot = last.withPieces(this);
+  }
+
+/**
+ * Returns the snapshot of the game after the last command, which may be
+ * read from any thread
+ * @param - none
+ * @return latest snapshot
+ ***********************************************************/
+  public GameSnapshot snapshot() {
+    return snapshot;
+  }
+
+/**
+ * Publishes the state of the game in the middle of a command and returns
+ * it, for History to keep as a checkpoint
+ * @param - none
+ * @return snapshot of the game as it is
+ ***********************************************************/
+  GameSnapshot capture() {
+    publish();
+    return snapshot;
+  }
+
+/**
+ * Puts the game back in the state of a snapshot of it or of another 
+ * game of the same size, sharing the rows of the snapshot until they 
+ * are written to. Only the rows below the higher of the two stacks are
+ * written, the rows above both being empty already
+ * @param snapshot state to restore
+ * @return - none
+ ***********************************************************/
+  public void restore(GameSnapshot snapshot) {
+    if ( snapshot.rows != rows || snapshot.cols != cols )
+      throw new IllegalArgumentException("snapshot of a " + snapshot.rows 
+          + " by " + snapshot.cols + " grid cannot be restored on a " 
+          + rows + " by " + cols + " grid");
+    int top  = snapshot.top();
+    int from = Math.min(stackTop(), top);
+    Arrays.fill(grid, from, top, blankRow);
+    Arrays.fill(board, from, top, 0);
+    snapshot.copyInto(grid, board);
+    // the rows came from the snapshot, so all of them are shared
+    Arrays.fill(rowShared, from, rows, true);
+    Arrays.fill(chunkChanged, from / GameSnapshot.CHUNK_ROWS, 
+        chunkChanged.length, true);
+    updateColumnTops(top);
+
+    linesCleared = snapshot.linesCleared;
+    piecesPlaced = snapshot.piecesPlaced;
+    isGameover   = snapshot.isGameover;
+    usedHold     = snapshot.usedHold;
+    seed         = snapshot.seed;
+    randomizer   = new Randomizer(snapshot.randomizerState);
+
+    activePiece  = spawn(snapshot.activeType.shape);
+    activePiece.type = snapshot.activeType;
+    activePiece.rowOffset = snapshot.rowOffset;
+    activePiece.colOffset = snapshot.colOffset;
+    activePiece.rotateClockwiseNext = snapshot.rotateClockwiseNext;
+    nextPiece    = spawn(snapshot.nextShape);
+    storedPiece  = snapshot.storedShape == ' ' 
+      ? null : spawn(snapshot.storedShape);
+
+    hash        = snapshot.hash;
+    gridChanged = true;
+    publish();
+  }
+
+/**
+ * Returns a row of the grid which may be written to, copying it first
+ * if a snapshot holds it
+ * @param row row of the grid
+ * @return the row
+ ***********************************************************/
+  private char[] writableRow(int row) {
+    if ( rowShared[row] ) {
+      grid[row] = grid[row].clone();
+      rowShared[row] = false;
+    }
+    chunkChanged[row / GameSnapshot.CHUNK_ROWS] = true;
+    gridChanged = true;
+    return grid[row];
+  }
+
+/**
+ * Returns the Zobrist hash of the game, equal for games with the same 
+ * board, the same active, next and stored shapes and the same hold flag
+ * @param - none
+ * @return hash of the game
+ ***********************************************************/
+  public long hash() {
+    return hash;
+  }
+
+/**
+ * Returns the highest occupied row of the grid
+ * @param - none
+ * @return row of the top of the stack, rows if the grid is empty
+ ***********************************************************/
+  int stackTop() {
+    int top = rows;
+    for ( int j = 0 ; j < cols ; j++ )
+      top = Math.min(top, columnTop[j]);
+    return top;
+  }
+
+/**
+ * Recomputes the highest occupied cell of every column from the 
+ * bitboard, stopping at the first row where all columns are found
+ * @param from row to start from, every row above it being empty
+ * @return - none
+ ***********************************************************/
+  private void updateColumnTops(int from) {
+    Arrays.fill(columnTop, rows);
+    long remaining = fullRow;
+    for ( int i = from ; i < rows && remaining != 0 ; i++ ) {
+      long found = board[i] & remaining;
+      while ( found != 0 ) {
+        columnTop[Long.numberOfTrailingZeros(found)] = i;
+        found &= found - 1;
+      }
+      remaining &= ~board[i];
     }
   }
 
+/**
+ * Shifts a piece row mask to the given column on the grid
+ * @param mask bits of one row of a piece, bit 0 is the leftmost tile
+ * @param col column of the leftmost tile of the piece
+ * @return the shifted mask, or all bits set if a tile falls off 
+ * either side of the grid
+ ***********************************************************/
+  static long shiftRow(long mask, int col) {
+    if ( col < 0 )
+      return ( mask & ((1L << -col) - 1) ) != 0 ? -1L : mask >>> -col;
+    long shifted = mask << col;
+    return ( shifted >>> col ) != mask ? -1L : shifted;
+  }
+
 /**
  * checks if piece has conflict
  * @param Piece object 
  * @return true if there is conflict, false otherwise
  ***********************************************************/
   public boolean hasConflict(Piece piece) {
+    return hasConflict(piece.type, piece.rowOffset, piece.colOffset);
+  }
 
-    for ( int i = 0 ; i < piece.tiles.length ; i++ ) {
-      for ( int j = 0 ; j < piece.tiles.length ; j++ ) {
-        // checks if tile is visible
-        if ( piece.tiles[i][j] == 1 ) {
-          //returns true if tile is outside the grid
-          if (  piece.rowOffset + i < 0 
-              || piece.rowOffset + i > 19 
-              || piece.colOffset + j < 0 
-              || piece.colOffset + j > 9 )
-            return true;
-          //returns true if position on grid is already occupied
-          else if ( grid[piece.rowOffset + i][piece.colOffset + j] != ' ' )
-            return true;
-          else 
-            continue;
-        }
-      }
+/**
+ * checks if a piece of the given type would have conflict at the 
+ * given position, without needing a Piece object
+ * @param type shape and rotation of the piece
+ * @param rowOffset row of the upper-left corner of the piece
+ * @param colOffset column of the upper-left corner of the piece
+ * @return true if there is conflict, false otherwise
+ ***********************************************************/
+  public boolean hasConflict(PieceType type, int rowOffset, int colOffset) {
+    return hasConflict(board, 0, rows, fullRow, type, rowOffset, colOffset);
+  }
+
+/**
+ * checks if a piece of the given type would have conflict at the given
+ * position on any bitboard
+ * @param board bitboard to check against, one mask per row
+ * @param fullRow bitmask of a full row of the board
+ * @param type shape and rotation of the piece
+ * @param rowOffset row of the upper-left corner of the piece
+ * @param colOffset column of the upper-left corner of the piece
+ * @return true if there is conflict, false otherwise
+ ***********************************************************/
+  static boolean hasConflict(long[] board, long fullRow, PieceType type, 
+      int rowOffset, int colOffset) {
+    return hasConflict(board, 0, board.length, fullRow, type, 
+        rowOffset, colOffset);
+  }
+
+/**
+ * checks if a piece of the given type would have conflict at the given
+ * position on the lower rows of a bitboard, every row above them being
+ * empty. Only the rows of the type's bounding box are checked, at most
+ * four of them
+ * @param board bitboard of the rows from top down, one mask per row
+ * @param top row of the grid held by board[0]
+ * @param rows number of rows of the grid
+ * @param fullRow bitmask of a full row of the grid
+ * @param type shape and rotation of the piece
+ * @param rowOffset row of the upper-left corner of the piece
+ * @param colOffset column of the upper-left corner of the piece
+ * @return true if there is conflict, false otherwise
+ ***********************************************************/
+  static boolean hasConflict(long[] board, int top, int rows, long fullRow,
+      PieceType type, int rowOffset, int colOffset) {
+
+    long[] masks = type.rowMasks();
+    for ( int i = type.minRow ; i <= type.maxRow ; i++ ) {
+      //returns true if tile is above or below the grid
+      int row = rowOffset + i;
+      if ( row < 0 || row >= rows )
+        return true;
+      //returns true if tile is left or right of the grid, or if 
+      //position on grid is already occupied. A row of a piece has at
+      //most four tiles, so only a tile off the grid makes it all ones
+      long shifted  = shiftRow(masks[i], colOffset);
+      long occupied = row < top ? 0 : board[row - top];
+      if ( shifted == -1L || ( shifted & (occupied | ~fullRow) ) != 0 )
+        return true;
     } 
     return false;
   }
@@ -108,43 +651,81 @@ public class Tetris {
  * @return - none
  ***********************************************************/
   public void consolidate() {
-    for ( int i = 0 ; i < activePiece.tiles.length ; i++ ) {
-      for ( int j = 0 ; j < activePiece.tiles.length ; j++ ) {
-        if (activePiece.tiles[i][j] == 1) {
-          grid[activePiece.rowOffset + i][activePiece.colOffset + j]
-            = activePiece.shape;
-          usedHold = false;
-        }
-        else
-          continue;
-      }
+    Piece piece    = activePiece;
+    PieceType type = piece.type;
+    for ( int k = 0 ; k < PieceType.CELLS ; k++ ) {
+      int row = piece.rowOffset + type.cellRow(k);
+      int col = piece.colOffset + type.cellCol(k);
+      writableRow(row)[col] = type.shape;
+      if ( ( board[row] & 1L << col ) == 0 )
+        hash ^= Zobrist.cell(row, col);
+      board[row] |= 1L << col;
+      columnTop[col] = Math.min(columnTop[col], row);
     }
+    if (usedHold)
+      hash ^= Zobrist.HOLD;
+    usedHold = false;
   }
 
 /**
- * Clears rows on the grid that have been 
- * completely filled with characters
+ * Clears rows on the grid that have been completely filled with 
+ * characters. All full rows are found in a single pass from the bottom 
+ * up, and every remaining row is moved down exactly once
  * @param none
- * @return none
+ * @return number of rows cleared
+ ***********************************************************/
+  public int clearLines() {
+    return clearLines(0, rows - 1);
+  }
+
+/**
+ * Clears the full rows between two rows, which after a piece is placed
+ * are the rows the piece covers, the only rows that can be full. Rows
+ * below the lowest full row are not touched, and nothing is when no row
+ * is full, so the work does not grow with the size of the grid
+ * @param first highest row that may be full
+ * @param last lowest row that may be full
+ * @return number of rows cleared
  ***********************************************************/
-  public void clearLines() {
-    int full_row;
-    boolean row_full = true;
+  private int clearLines(int first, int last) {
+    // rows above the highest occupied cell are empty and never move
+    int stack_top = stackTop();
+    first = Math.max(first, stack_top);
+    last  = Math.min(last, rows - 1);
 
-    for ( int i = 0 ; i < 20 ; i++ ) {
-      for ( int j = 0 ; j < 10 ; j++ ) {
-        if ( grid[i][j] == ' ')
-          row_full = false;
+    int bottom = BoardKernels.DEFAULT.lastFullRow(board, first, last, fullRow);
+    if ( bottom < first )
+      return 0;
+
+    // rows below write are final
+    int write = bottom;
+    for ( int read = bottom ; read >= stack_top ; read-- ) {
+      if ( read >= first && board[read] == fullRow ) {
+        hash ^= Zobrist.row(read, fullRow);
+        continue;
       }
-      if ( row_full ) {
-        full_row = i;
-        for ( int k = full_row ; k > 0 ; k-- )
-          grid[k] = grid[k - 1];
-        Arrays.fill(grid[0], ' ');
-        linesCleared++;
+      if ( write != read ) {
+        hash ^= Zobrist.row(read, board[read]) ^ Zobrist.row(write, board[read]);
+        grid[write]      = grid[read];
+        rowShared[write] = rowShared[read];
+        board[write]     = board[read];
       }
-      row_full = true;
+      write--;
     }
+
+    // the rows left at the top become the shared row of spaces
+    int cleared = write - stack_top + 1;
+    for ( int i = stack_top ; i <= write ; i++ ) {
+      grid[i]      = blankRow;
+      rowShared[i] = true;
+      board[i]     = 0;
+    }
+    Arrays.fill(chunkChanged, stack_top / GameSnapshot.CHUNK_ROWS, 
+        bottom / GameSnapshot.CHUNK_ROWS + 1, true);
+    linesCleared += cleared;
+    gridChanged   = true;
+    updateColumnTops(stack_top);
+    return cleared;
   }
 
  /** moves active piece according to user input
@@ -153,30 +734,74 @@ public class Tetris {
  ***********************************************************/
 
   public boolean move( Direction direction ) {
-    Piece test_piece = new Piece( activePiece );
+    if ( journal != null )
+      journal.record( direction == Direction.DOWN ? Command.DOWN 
+          : direction == Direction.LEFT ? Command.LEFT : Command.RIGHT );
+    boolean moved = moveActive( direction );
+    publish();
+    return moved;
+  }
+
+ /** moves active piece down once as gravity, which is the same as
+ * moving it down but is recorded as a separate command
+ * @param none
+ * @return true if piece was moved, false otherwise
+ ***********************************************************/
+  public boolean tick() {
+    if ( journal != null )
+      journal.record( Command.TICK );
+    boolean moved = moveActive( Direction.DOWN );
+    publish();
+    return moved;
+  }
+
+ /** applies a command to the game
+ * @param command command to apply
+ * @return none
+ ***********************************************************/
+  public void apply( Command command ) {
+    switch ( command ) {
+      case LEFT  : move( Direction.LEFT );
+                   break;
+      case RIGHT : move( Direction.RIGHT );
+                   break;
+      case DOWN  : move( Direction.DOWN );
+                   break;
+      case ROTATE: rotate();
+                   break;
+      case DROP  : drop();
+                   break;
+      case HOLD  : hold();
+                   break;
+      case TICK  : tick();
+                   break;
+    }
+  }
+
+ /** moves active piece without recording a command, consolidating it
+ * when it cannot move down
+ * @param Direction 
+ * @return true if piece was moved, false otherwise
+ ***********************************************************/
+  private boolean moveActive( Direction direction ) {
+    Piece piece = activePiece;
     switch ( direction ) {
-      case DOWN : test_piece.rowOffset++;
-                  if ( !hasConflict( test_piece ) ){
+      case DOWN : if ( !hasConflict( piece.type,
+                        piece.rowOffset + 1, piece.colOffset ) ){
                     activePiece.rowOffset++;
                     return true;
                   }
-                  else { 
-                    consolidate();
-                    clearLines();
-                    activePiece = nextPiece;
-                    nextPiece   = new Piece();
-                    if ( hasConflict( nextPiece ) )
-                      isGameover = true;
-                  }
+                  else 
+                    lock();
                   break;
-      case LEFT : test_piece.colOffset--;
-                  if ( !hasConflict( test_piece ) ) {
+      case LEFT : if ( !hasConflict( piece.type,
+                        piece.rowOffset, piece.colOffset - 1 ) ) {
                     activePiece.colOffset--;
                     return true;
                   }
                   break;
-      case RIGHT: test_piece.colOffset++;
-                  if ( !hasConflict( test_piece ) ) {
+      case RIGHT: if ( !hasConflict( piece.type,
+                        piece.rowOffset, piece.colOffset + 1 ) ) {
                     activePiece.colOffset++;
                     return true;
                   }
@@ -185,19 +810,80 @@ public class Tetris {
     return false;
   }
 
+ /** Consolidates the active piece, clears lines and makes the next
+ * piece active, ending the game if it has no room
+ * @param none
+ * @return number of rows cleared
+ ***********************************************************/
+  private int lock() {
+    Piece placed = activePiece;
+    consolidate();
+    int cleared = clearLines(placed.rowOffset + placed.type.minRow, 
+        placed.rowOffset + placed.type.maxRow);
+    piecesPlaced++;
+    hash ^= Zobrist.pieces(this);
+    activePiece = nextPiece;
+    nextPiece   = newPiece();
+    hash ^= Zobrist.pieces(this);
+    if ( hasConflict( nextPiece ) )
+      isGameover = true;
+    if ( journal != null )
+      journal.locked(this);
+    if ( history != null )
+      history.locked(placed, cleared);
+    return cleared;
+  }
+
+ /** Puts the active piece in a rotation and position and places it
+ * there, as History does to play a recorded piece again
+ * @param rotation number of clockwise quarter turns
+ * @param rowOffset row of the piece
+ * @param colOffset column of the piece
+ * @return number of rows cleared
+ ***********************************************************/
+  int place( int rotation, int rowOffset, int colOffset ) {
+    activePiece.setRotation(rotation);
+    activePiece.rowOffset = rowOffset;
+    activePiece.colOffset = colOffset;
+    int cleared = lock();
+    publish();
+    return cleared;
+  }
+
  /** Drops the active piece to the lowest possible
  * position on the grid without causing conflict
  * @param none
  * @return none
  ***********************************************************/
   public void drop() {
-    Piece test_piece = new Piece(activePiece);
-    test_piece.rowOffset++;
+    if ( journal != null )
+      journal.record( Command.DROP );
+    activePiece.rowOffset = landingRow();
+    publish();
+  }
+
+ /** Finds the lowest row the active piece can be dropped to, using
+ * the column heights and the bottom profile of the piece. Falls back to
+ * moving down one row at a time when the piece is under an overhang
+ * @param none
+ * @return row offset of the active piece after a drop
+ ***********************************************************/
+  public int landingRow() {
+    Piece piece  = activePiece;
+    int[] bottom = piece.type.bottomProfile();
+    int landing  = rows;
 
-    while(!hasConflict(test_piece)){
-      move(Direction.DOWN);
-      test_piece.rowOffset++;
+    for ( int j = piece.type.minCol ; j <= piece.type.maxCol ; j++ ) {
+      // lowest offset at which this column of the piece rests on the stack
+      int lowest = columnTop[piece.colOffset + j] - 1 - bottom[j];
+      // piece is below the top of this column, so the stack may not
+      // be solid underneath it
+      if ( piece.rowOffset > lowest )
+        return BoardKernels.DEFAULT.dropRow(board, piece.type, 
+            piece.rowOffset, piece.colOffset);
+      landing = Math.min(landing, lowest);
     }
+    return landing;
   }
 
  /**
@@ -206,10 +892,12 @@ public class Tetris {
  * @return - none
  ***********************************************************/
   public void rotate() {
-    Piece test_piece = new Piece(activePiece);
-    test_piece.rotate();
-    if (!hasConflict(test_piece))
-      activePiece.rotate();
+    if ( journal != null )
+      journal.record( Command.ROTATE );
+    Piece piece = activePiece;
+    if ( !hasConflict( piece.nextType(), piece.rowOffset, piece.colOffset ) )
+      piece.rotate();
+    publish();
   }
 
 /**
@@ -218,21 +906,91 @@ public class Tetris {
  * @return - none
  ***********************************************************/
   public void outputToFile() throws IOException {
+    outputToFile("output.txt");
+  }
 
-    File file = new File("output.txt");
+/**
+ * Exports the current state of the game in the text format read by
+ * Tetris(String filename), which keeps only the lines cleared, the active
+ * and next shapes and the grid
+ * @param filename file to write
+ * @return none
+ ***********************************************************/
+  public void outputToFile(String filename) throws IOException {
+
+    File file = new File(filename);
     PrintWriter output = new PrintWriter(file);
+    outputTo(output);
+    output.close();
+  }
+
+/**
+ * Writes the current state of the game in the text format of 
+ * outputToFile to any writer, which is left open
+ * @param output writer to write to
+ * @return none
+ ***********************************************************/
+  public void outputTo(PrintWriter output) {
 
     output.println(linesCleared);
-    output.println(activePiece.shape);
-    output.println(nextPiece.shape);
+    output.println(activePiece.type.shape);
+    output.println(nextPiece.type.shape);
 
-    for ( int i = 0 ; i < 20 ; i++ ) {
-      for (int j = 0 ; j < 10 ; j++ ) {
-        output.print(grid[i][j]);
-      }
-      output.println();
+    for ( int i = 0 ; i < rows ; i++ ) {
+      output.println(grid[i]);
+    }
+  }
+
+/**
+ * Saves the full state of the game as a binary snapshot: 
+ * SNAPSHOT_MAGIC (int) and SNAPSHOT_VERSION (byte) followed by 
+ * writeState, which unlike the text format keeps the stored piece, the 
+ * hold flag, the orientation and position of the active piece and the 
+ * randomizer, so a restored game continues exactly where it was saved
+ * @param filename file to write
+ * @return none
+ ***********************************************************/
+  public void save(String filename) throws IOException {
+
+    ByteBuffer snapshot = ByteBuffer.allocate(5 + stateSize(rows, cols));
+    snapshot.putInt(SNAPSHOT_MAGIC).put(SNAPSHOT_VERSION);
+    writeState(snapshot);
+    snapshot.flip();
+
+    try ( FileChannel channel = FileChannel.open(Paths.get(filename), 
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+          StandardOpenOption.TRUNCATE_EXISTING) ) {
+      while ( snapshot.hasRemaining() )
+        channel.write(snapshot);
+    }
+  }
+
+/**
+ * Restores a game saved by save, or imports a game exported by 
+ * outputToFile when the file does not start with SNAPSHOT_MAGIC
+ * @param filename file to read
+ * @return the restored game
+ ***********************************************************/
+  public static Tetris load(String filename) throws IOException {
+
+    ByteBuffer snapshot;
+    try ( FileChannel channel = FileChannel.open(Paths.get(filename), 
+          StandardOpenOption.READ) ) {
+      snapshot = ByteBuffer.allocate((int) Math.min(channel.size(), 
+            Integer.MAX_VALUE));
+      while ( snapshot.hasRemaining() && channel.read(snapshot) >= 0 );
+    }
+    snapshot.flip();
+
+    if ( snapshot.remaining() < 5 || snapshot.getInt() != SNAPSHOT_MAGIC )
+      return new Tetris(filename);
+    if ( snapshot.get() != SNAPSHOT_VERSION )
+      throw new IOException(filename + " has an unknown snapshot version");
+    try {
+      return new Tetris(snapshot);
+    } catch ( BufferUnderflowException e ) {
+      throw new IOException(filename + " is cut short", e);
     }
-    output.close();
   }
 
 /**
@@ -252,17 +1010,12 @@ public class Tetris {
       user_input = input.nextLine();
 
       switch (user_input) {
-        case "a": move(Direction.LEFT);
-                  break;
-        case "d": move(Direction.RIGHT);
-                  break;
-        case "s": move(Direction.DOWN);
-                  break;
-        case "w": rotate();
-                  break;
-        case "z": hold();
-                  break;
-        case " ": drop();
+        case "a": 
+        case "d": 
+        case "s": 
+        case "w": 
+        case "z": 
+        case " ": apply(Command.fromKey(user_input.charAt(0)));
                   break;
         case "o":try {
                    outputToFile();
@@ -280,58 +1033,29 @@ public class Tetris {
    * following format:
    *  Lines cleared: [number]
    *  Next piece: [char]  (Stored piece: [char])
-   *  char[20][10]
+   *  char[rows][cols]
    * @return string representation of the Tetris game
    */
   @Override
   public String toString() {
-    StringBuilder str = new StringBuilder();
-
-    str.append("\nLines cleared: " + this.linesCleared + '\n');
-
-    str.append("Next piece: " + this.nextPiece.shape);
-    if (this.storedPiece == null) str.append("\n");
-    else str.append("  Stored piece: " + this.storedPiece.shape + '\n');
-
-    str.append("| - - - - - - - - - - |\n");
-
-    /*deep copy the grid*/
-    char[][] temp_grid = new char[this.grid.length][this.grid[0].length];
-    for (int row=0; row<this.grid.length; row++)
-      for (int col=0; col<this.grid[0].length; col++)
-        temp_grid[row][col] = this.grid[row][col];
-
-    /*put the active piece in the temp grid*/
-    for (int row=0; row<this.activePiece.tiles.length; row++)
-      for (int col=0; col<this.activePiece.tiles[0].length; col++)
-        if (activePiece.tiles[row][col] == 1)
-          temp_grid[row+activePiece.rowOffset]
-            [col+activePiece.colOffset] = 
-            activePiece.shape;
-
-    /*print the temp grid*/
-    for (int row=0; row<temp_grid.length; row++){
-      str.append('|');
-      for (int col=0; col<temp_grid[0].length; col++){
-        str.append(' ');
-        str.append(temp_grid[row][col]);
-      }
-      str.append(" |\n");
-    }
-
-    str.append("| - - - - - - - - - - |\n");
-    return str.toString();        
+    return GameSnapshot.format(grid, 0, rows, cols, linesCleared, 
+        nextPiece.type.shape, 
+        storedPiece == null ? ' ' : storedPiece.type.shape, 
+        activePiece.type, activePiece.rowOffset, activePiece.colOffset);
   }
 
 
   public void hold() {
 
+    if (journal != null)
+      journal.record(Command.HOLD);
     if (!usedHold) {
-      activePiece = new Piece(activePiece.shape);
+      hash ^= Zobrist.pieces(this);
+      activePiece = spawn(activePiece.type.shape);
       if (storedPiece == null) {
         storedPiece = activePiece;
         activePiece = nextPiece;
-        nextPiece   = new Piece();
+        nextPiece   = newPiece();
       }
       else {
         Piece temp  = new Piece(storedPiece);
@@ -339,26 +1063,34 @@ public class Tetris {
         activePiece = temp;
       }
       usedHold = true;
+      hash ^= Zobrist.pieces(this);
+      if (history != null)
+        history.held(storedPiece);
     }
+    publish();
   }
 
   /**
    * first method called during program execution
    * @param args: an array of String when running the program from the 
-   * command line, either empty, or contains a valid filename to load
-   * the Tetris game from
+   * command line, optionally -r for raw key input on an ANSI terminal,
+   * followed by a valid filename to load the Tetris game from
    */
   public static void main(String[] args) {
 
-    if (args.length != 0 && args.length != 1) {
-      System.err.println("Usage: java Tetris / java Tetris <filename>");
+    boolean raw = args.length > 0 && args[0].equals("-r");
+    int files   = args.length - ( raw ? 1 : 0 );
+    if (files != 0 && files != 1) {
+      System.err.println("Usage: java Tetris [-r] / java Tetris [-r] <filename>");
+      System.err.println("  -r  raw key input on an ANSI terminal, no Enter needed");
       return;
     }
     try {
       Tetris tetris;
-      if (args.length == 0) tetris = new Tetris();
-      else tetris = new Tetris(args[0]);
-      tetris.play();
+      if (files == 0) tetris = new Tetris();
+      else tetris = Tetris.load(args[args.length - 1]);
+      if (raw) TerminalRenderer.play(tetris);
+      else tetris.play();
     } catch (Exception e) {
       e.printStackTrace();
     }
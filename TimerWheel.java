@@ -0,0 +1,375 @@
+/**
+ *  Contains a scheduler which runs delayed tasks, such as the gravity of
+ *  many games at once, on one timer thread and a small pool of workers.
+ * */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/** The TimerWheel class is a hierarchical timing wheel. Time is counted
+ *  in ticks of a fixed duration, and every level of the wheel is a ring of
+ *  SLOTS slots, each slot of a level spanning SLOTS times the time of a
+ *  slot of the level below. A task goes into the slot of the lowest level
+ *  whose ring reaches its deadline, and when the timer thread reaches a
+ *  slot of a higher level, its tasks move down to the level below, until
+ *  they reach the lowest level in the tick they are due.
+ *
+ *  Each slot is a doubly linked list, so scheduling and cancelling a task
+ *  take constant time whatever the number of tasks. The tasks due in one
+ *  tick are handed to the workers in a few batches rather than one by
+ *  one. How late every task ran after its deadline is measured, which
+ *  shows when the workers cannot keep up.
+ *  */
+public class TimerWheel implements Closeable {
+
+  // slots of each level, a power of two
+  private static final int SLOT_BITS = 8;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 4;
+
+  // farthest a task can be scheduled, beyond which it is moved down again
+  // from the highest level until it is due
+  private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+  /** The Timeout class is a task scheduled on the wheel, which can be
+   *  cancelled until it runs */
+  public static final class Timeout {
+
+    private final TimerWheel wheel;
+    private final Runnable task;
+    private final long deadline;      // tick in which the task is due
+    private final long deadlineNanos; // System.nanoTime the task is due
+
+    // neighbours in the slot list, null when in no slot
+    private Timeout previous;
+    private Timeout next;
+
+    private Timeout(TimerWheel wheel, Runnable task, long deadline,
+        long deadlineNanos) {
+      this.wheel         = wheel;
+      this.task          = task;
+      this.deadline      = deadline;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    // creates the head of a slot list
+    private Timeout() {
+      this(null, null, 0, 0);
+      previous = this;
+      next     = this;
+    }
+
+    /**
+     * Cancels the task if it has not run yet
+     * @return true if the task was cancelled, false if it already ran or
+     * was cancelled before
+     ***********************************************************/
+    public boolean cancel() {
+      return wheel.cancel(this);
+    }
+  }
+
+  /** The Metrics class holds the lateness of the tasks run since the
+   *  metrics were last reset */
+  public static class Metrics {
+
+    public final long fired;           // tasks run
+    public final long late;            // tasks run a tick or more late
+    public final double meanLateness;  // mean lateness in milliseconds
+    public final double maxLateness;   // largest lateness in milliseconds
+    public final int pending;          // tasks scheduled but not run yet
+
+    private Metrics(long fired, long late, long totalNanos, long maxNanos,
+        int pending) {
+      this.fired        = fired;
+      this.late         = late;
+      this.meanLateness = fired == 0 ? 0 : totalNanos / 1e6 / fired;
+      this.maxLateness  = maxNanos / 1e6;
+      this.pending      = pending;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d fired, %d late, lateness %.3f ms mean, "
+          + "%.3f ms max, %d pending", fired, late, meanLateness,
+          maxLateness, pending);
+    }
+  }
+
+  private final long tickNanos;
+  private final long startNanos;
+
+  // slots of every level, each the head of a circular list
+  private final Timeout[][] wheel = new Timeout[LEVELS][SLOTS];
+
+  // guards the wheel, the current tick and the count of tasks
+  private final Lock lock = new ReentrantLock();
+
+  // next tick to be processed by the timer thread
+  private long current;
+
+  // tasks in the wheel
+  private int count;
+
+  private final ExecutorService workers;
+  private final int batches;
+  private final Thread timer;
+  private volatile boolean closed;
+
+  // lateness of the tasks run
+  private final LongAdder fired = new LongAdder();
+  private final LongAdder late = new LongAdder();
+  private final LongAdder totalLateness = new LongAdder();
+  private final AtomicLong maxLateness = new AtomicLong();
+
+  //Constructor which uses ticks of one millisecond and a worker for every
+  //two cores, at most four
+  public TimerWheel() {
+    this(1, TimeUnit.MILLISECONDS,
+        Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+  }
+
+  //Constructor which takes in the duration of a tick and the number of
+  //worker threads running the tasks
+  public TimerWheel(long tick, TimeUnit unit, int workers) {
+    tickNanos  = Math.max(1, unit.toNanos(tick));
+    startNanos = System.nanoTime();
+    batches    = workers;
+    for (Timeout[] level : wheel)
+      for (int i = 0 ; i < SLOTS ; i++)
+        level[i] = new Timeout();
+
+    this.workers = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "timer wheel worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer = new Thread(this::run, "timer wheel");
+    timer.setDaemon(true);
+    timer.start();
+  }
+
+  /**
+   * Schedules a task to run once after a delay
+   * @param task task to run on a worker thread
+   * @param delay time from now after which the task runs
+   * @param unit unit of the delay
+   * @return handle with which the task can be cancelled
+   ***********************************************************/
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (closed)
+      throw new RejectedExecutionException("timer wheel is closed");
+    long deadlineNanos = System.nanoTime() + unit.toNanos(Math.max(0, delay));
+    // rounds up, so a task never runs before its delay
+    long deadline = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+    Timeout timeout = new Timeout(this, task, deadline, deadlineNanos);
+
+    boolean wasEmpty;
+    lock.lock();
+    try {
+      wasEmpty = count == 0;
+      insert(timeout);
+      count++;
+    } finally {
+      lock.unlock();
+    }
+    if (wasEmpty)
+      LockSupport.unpark(timer);
+    return timeout;
+  }
+
+  /**
+   * Cancels a task which has not run yet
+   * @param timeout handle returned by schedule
+   * @return true if the task was cancelled, false if it already ran or
+   * was cancelled before
+   ***********************************************************/
+  public boolean cancel(Timeout timeout) {
+    lock.lock();
+    try {
+      if (timeout.next == null)
+        return false;
+      unlink(timeout);
+      count--;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Puts a task in the slot of the lowest level reaching its deadline.
+   * Called while holding the lock.
+   * @param timeout task to insert
+   ***********************************************************/
+  private void insert(Timeout timeout) {
+    long deadline = Math.max(timeout.deadline, current);
+    long delta    = Math.min(deadline - current, MAX_DELTA);
+    int level = 0;
+    while (delta >= 1L << (SLOT_BITS * (level + 1)))
+      level++;
+    if (deadline - current > MAX_DELTA)
+      deadline = current + MAX_DELTA;
+
+    Timeout head = wheel[level][(int) (deadline >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+    timeout.previous = head.previous;
+    timeout.next     = head;
+    head.previous.next = timeout;
+    head.previous      = timeout;
+  }
+
+  /**
+   * Removes a task from its slot. Called while holding the lock.
+   * @param timeout task to remove
+   ***********************************************************/
+  private static void unlink(Timeout timeout) {
+    timeout.previous.next = timeout.next;
+    timeout.next.previous = timeout.previous;
+    timeout.previous = null;
+    timeout.next     = null;
+  }
+
+  /**
+   * Advances the wheel tick by tick as time passes, handing the due tasks
+   * to the workers, until the wheel is closed
+   ***********************************************************/
+  private void run() {
+    List<Timeout> due = new ArrayList<>();
+    while (!closed) {
+      long now = (System.nanoTime() - startNanos) / tickNanos;
+      boolean idle;
+      lock.lock();
+      try {
+        // an empty wheel skips the ticks it slept through at once
+        if (count == 0)
+          current = Math.max(current, now + 1);
+        while (current <= now) {
+          process(current, due);
+          current++;
+        }
+        idle = count == 0;
+      } finally {
+        lock.unlock();
+      }
+      if (!due.isEmpty()) {
+        dispatch(due);
+        due = new ArrayList<>();
+      }
+
+      // schedule unparks the timer when it adds to an empty wheel
+      if (idle)
+        LockSupport.park(this);
+      else
+        LockSupport.parkNanos(this,
+            startNanos + current * tickNanos - System.nanoTime());
+    }
+  }
+
+  /**
+   * Moves the tasks of the higher levels whose slot starts at a tick
+   * down, then takes the tasks due in the tick. Called while holding the
+   * lock.
+   * @param tick tick to process
+   * @param due list the due tasks are added to
+   ***********************************************************/
+  private void process(long tick, List<Timeout> due) {
+    for (int level = 1 ; level < LEVELS ; level++) {
+      if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+        break;
+      Timeout head = wheel[level][(int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+      Timeout timeout = head.next;
+      head.next     = head;
+      head.previous = head;
+      while (timeout != head) {
+        Timeout next = timeout.next;
+        insert(timeout);
+        timeout = next;
+      }
+    }
+
+    Timeout head = wheel[0][(int) tick & (SLOTS - 1)];
+    while (head.next != head) {
+      Timeout timeout = head.next;
+      unlink(timeout);
+      count--;
+      due.add(timeout);
+    }
+  }
+
+  /**
+   * Splits the tasks due in a tick into one batch per worker
+   * @param due tasks to run
+   ***********************************************************/
+  private void dispatch(List<Timeout> due) {
+    int size = (due.size() + batches - 1) / batches;
+    for (int from = 0 ; from < due.size() ; from += size) {
+      List<Timeout> batch = due.subList(from, Math.min(due.size(), from + size));
+      try {
+        workers.execute(() -> {
+          for (Timeout timeout : batch)
+            fire(timeout);
+        });
+      } catch (RejectedExecutionException e) {
+        return; // closed
+      }
+    }
+  }
+
+  /**
+   * Runs a task and records how late it ran
+   * @param timeout task to run
+   ***********************************************************/
+  private void fire(Timeout timeout) {
+    long lateness = Math.max(0, System.nanoTime() - timeout.deadlineNanos);
+    fired.increment();
+    if (lateness >= tickNanos)
+      late.increment();
+    totalLateness.add(lateness);
+    maxLateness.accumulateAndGet(lateness, Math::max);
+    try {
+      timeout.task.run();
+    } catch (RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  /**
+   * Returns the lateness of the tasks run since the last reset
+   * @return the metrics
+   ***********************************************************/
+  public Metrics metrics() {
+    int pending;
+    lock.lock();
+    try {
+      pending = count;
+    } finally {
+      lock.unlock();
+    }
+    return new Metrics(fired.sum(), late.sum(), totalLateness.sum(),
+        maxLateness.get(), pending);
+  }
+
+  /**
+   * Starts measuring lateness anew
+   ***********************************************************/
+  public void resetMetrics() {
+    fired.reset();
+    late.reset();
+    totalLateness.reset();
+    maxLateness.set(0);
+  }
+
+  /**
+   * Stops the timer thread and the workers, dropping the tasks not run
+   ***********************************************************/
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(timer);
+    workers.shutdownNow();
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ *  Contains a fixed-size table of search results keyed by the Zobrist hash
+ *  of a Tetris state, shared by any number of searching threads.
+ * */
+
+import java.util.concurrent.atomic.*;
+
+/** The TranspositionTable class stores the score, search depth and best
+ *  move of states already searched. It never locks: each entry is a pair
+ *  of longs holding the data and the key XORed with the data, so a pair
+ *  torn by two threads writing at once no longer matches its key and is
+ *  read as a miss. When two states share a slot, the one searched deeper
+ *  is kept.
+ *
+ *  An entry's data packs the score as float bits in bits 0 to 31, the
+ *  move in bits 32 to 47, the depth in bits 48 to 55 and a valid flag in
+ *  bit 56.
+ *  */
+public class TranspositionTable {
+
+  // returned by probe when the state is not in the table
+  public static final long MISS = 0;
+
+  private static final long VALID = 1L << 56;
+
+  // two longs per entry, key ^ data followed by data
+  private final AtomicLongArray entries;
+
+  // number of entries minus one, used to pick the slot of a key
+  private final int mask;
+
+  //Constructor which takes in the number of entries, rounded up to a
+  //power of two
+  public TranspositionTable(int size) {
+    int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+    entries = new AtomicLongArray(capacity * 2);
+    mask    = capacity - 1;
+  }
+
+  /**
+   * Looks up a state
+   * @param key Zobrist hash of the state
+   * @return packed data of the state, or MISS
+   ***********************************************************/
+  public long probe(long key) {
+    int slot  = (int) key & mask;
+    long data = entries.get(2 * slot + 1);
+    long check = entries.get(2 * slot);
+    return (check ^ data) == key && (data & VALID) != 0 ? data : MISS;
+  }
+
+  /**
+   * Stores the result of searching a state, unless its slot holds a
+   * different state searched deeper
+   * @param key Zobrist hash of the state
+   * @param depth depth the state was searched to, 0 to 255
+   * @param score score of the state
+   * @param move best move found, 0 to 65535
+   ***********************************************************/
+  public void store(long key, int depth, float score, int move) {
+    int slot = (int) key & mask;
+    long old = entries.get(2 * slot + 1);
+    long oldKey = entries.get(2 * slot) ^ old;
+    if ((old & VALID) != 0 && oldKey != key && depth(old) > depth)
+      return;
+
+    long data = VALID | (long) (depth & 0xff) << 48
+      | (long) (move & 0xffff) << 32
+      | (Float.floatToRawIntBits(score) & 0xffffffffL);
+    entries.set(2 * slot + 1, data);
+    entries.set(2 * slot, key ^ data);
+  }
+
+  /**
+   * Removes every entry
+   ***********************************************************/
+  public void clear() {
+    for (int i = 0 ; i < entries.length() ; i++)
+      entries.set(i, 0);
+  }
+
+  public static int depth(long data) {
+    return (int) (data >>> 48) & 0xff;
+  }
+
+  public static float score(long data) {
+    return Float.intBitsToFloat((int) data);
+  }
+
+  public static int move(long data) {
+    return (int) (data >>> 32) & 0xffff;
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ *  Contains the Zobrist keys used to hash the state of a game of Tetris.
+ * */
+
+/** The Zobrist class defines a random 64-bit key for every occupied cell
+ *  of the grid, for the shape of the active, next and stored piece, and
+ *  for the hold flag. The hash of a game is the XOR of the keys of its
+ *  state, so Tetris updates it with a few XORs whenever a piece is 
+ *  consolidated, rows are cleared or a piece is held. Only shapes are 
+ *  hashed, not the position of the active piece, so two games have the 
+ *  same hash when they reach the same board with the same pieces to play.
+ *
+ *  Keys are computed from the cell position with the SplitMix64 mixing 
+ *  function instead of being stored in tables, so they are the same in 
+ *  every run and cost no memory for any size of grid.
+ *  */
+public class Zobrist {
+
+  // separates the keys of cells, piece slots and the hold flag
+  private static final long CELL_SALT   = 0x2545f4914f6cdd1dL;
+  private static final long ACTIVE_SALT = 0x5851f42d4c957f2dL;
+  private static final long NEXT_SALT   = 0x14057b7ef767814fL;
+  private static final long STORED_SALT = 0x1b873593cc9e2d51L;
+  public static final long HOLD = mix(0x6c62272e07bb0142L);
+
+  /**
+   * Scrambles the bits of a long, the finalizer of SplitMix64
+   * @param z value to scramble
+   * @return scrambled value
+   ***********************************************************/
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Returns the key of an occupied cell
+   * @param row row of the cell
+   * @param col column of the cell
+   * @return key of the cell
+   ***********************************************************/
+  public static long cell(int row, int col) {
+    return mix(((long) row << 32 | col) * 0x9e3779b97f4a7c15L + CELL_SALT);
+  }
+
+  /**
+   * Returns the XOR of the keys of the occupied cells of a row
+   * @param row row of the cells
+   * @param mask bitboard row, a set bit for every occupied column
+   * @return key of the row
+   ***********************************************************/
+  public static long row(int row, long mask) {
+    long key = 0;
+    while (mask != 0) {
+      key ^= cell(row, Long.numberOfTrailingZeros(mask));
+      mask &= mask - 1;
+    }
+    return key;
+  }
+
+  /**
+   * Returns the hash of a bitboard
+   * @param board one mask per row
+   * @return XOR of the keys of every row
+   ***********************************************************/
+  public static long board(long[] board) {
+    long key = 0;
+    for (int i = 0 ; i < board.length ; i++)
+      key ^= row(i, board[i]);
+    return key;
+  }
+
+  /**
+   * Returns the hash of the pieces and hold flag of a game
+   * @param tetris game to hash
+   * @return XOR of the keys of the active, next and stored shape and the
+   * hold flag
+   ***********************************************************/
+  public static long pieces(Tetris tetris) {
+    long key = mix(tetris.activePiece.type.shapeIndex + ACTIVE_SALT)
+      ^ mix(tetris.nextPiece.type.shapeIndex + NEXT_SALT);
+    if (tetris.storedPiece != null)
+      key ^= mix(tetris.storedPiece.type.shapeIndex + STORED_SALT);
+    if (tetris.usedHold)
+      key ^= HOLD;
+    return key;
+  }
+
+  /**
+   * Computes the hash of a game from scratch
+   * @param tetris game to hash
+   * @return hash of the board and pieces of the game
+   ***********************************************************/
+  public static long of(Tetris tetris) {
+    return board(tetris.board) ^ pieces(tetris);
+  }
+}
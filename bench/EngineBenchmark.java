@@ -0,0 +1,212 @@
+/**
+ *  Contains JMH benchmarks for the hot paths of the Tetris engine.
+ *
+ *  The benchmarks sit in the default package next to the engine, so they
+ *  are compiled together with it and the JMH annotation processor, then
+ *  run from the project root, for example:
+ *
+ *    javac -cp jmh-core.jar:jmh-generator-annprocess.jar -d out \
+ *        *.java bench/EngineBenchmark.java
+ *    java -cp jmh-core.jar:out EngineBenchmark
+ * */
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/** The EngineBenchmark class measures every Tetris operation on a set of
+ *  realistic boards. Operations that change the game take a Restored
+ *  game, which is reset from a saved fixture outside of the measurement
+ *  before every invocation. The cost of the reset is measured on its
+ *  own by reset.
+ *  */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+  // save file loaded by the saved board
+  private static final String SAVED_BOARD = "bench/boards/saved.txt";
+
+  // size of the tall board
+  private static final int TALL_ROWS = 10000;
+  private static final int TALL_FILLED = 100;
+
+  // empty: new game, half: bottom half filled, saved: loaded from
+  // SAVED_BOARD, topout: filled up to just below the spawn area, tall:
+  // TALL_ROWS by Tetris.MAX_COLS grid with its bottom TALL_FILLED rows
+  // filled, on which every operation should cost what it does on a
+  // standard grid
+  @Param({"empty", "half", "saved", "topout", "tall"})
+  public String boardType;
+
+  private Tetris tetris;
+
+  // snapshot of the fixture used to reset the board
+  private GameSnapshot fixture;
+
+  // buffer reused by snapshotRoundTrip
+  private ByteBuffer snapshot;
+
+  /**
+   * Builds the board for the current boardType and saves a copy of it
+   ***********************************************************/
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    switch (boardType) {
+      case "empty" : tetris = new Tetris(42);
+                     break;
+      case "half"  : tetris = filled(new Tetris(42), Tetris.ROWS / 2);
+                     break;
+      case "saved" : tetris = new Tetris(SAVED_BOARD);
+                     break;
+      case "topout": tetris = filled(new Tetris(42), Tetris.ROWS - 4);
+                     break;
+      case "tall"  : tetris = filled(new Tetris(TALL_ROWS, Tetris.MAX_COLS,
+                         42), TALL_FILLED);
+                     break;
+    }
+    fixture  = tetris.snapshot();
+    snapshot = ByteBuffer.allocate(Tetris.stateSize(tetris.rows, tetris.cols));
+  }
+
+  /**
+   * Fills the bottom rows of a new game, leaving one gap in every row
+   * so that no row is full
+   * @param tetris new game
+   * @param rows number of rows to fill
+   * @return the game
+   ***********************************************************/
+  private static Tetris filled(Tetris tetris, int rows) {
+    Randomizer randomizer = new Randomizer(7);
+    for (int i = tetris.rows - rows ; i < tetris.rows ; i++) {
+      int gap = (int) ((randomizer.nextLong() >>> 1) % tetris.cols);
+      char[] row = new char[tetris.cols];
+      for (int j = 0 ; j < tetris.cols ; j++)
+        row[j] = j == gap ? ' ' : Piece.possibleShapes[randomizer.nextShape()];
+      tetris.grid[i] = row;
+    }
+    tetris.syncBoard();
+    return tetris;
+  }
+
+  /**
+   * Restores the full state of the fixture, its board, pieces, hold
+   * flag, counters and hash, sharing its rows until they are written to
+   ***********************************************************/
+  private void restore() {
+    tetris.restore(fixture);
+  }
+
+  /** The Restored class is the game of the benchmark put back in the
+   *  full state of the fixture before every invocation, board, pieces,
+   *  hold flag, counters and hash, so that an operation which changes
+   *  the game measures the same path every time */
+  @State(Scope.Thread)
+  public static class Restored {
+
+    Tetris tetris;
+
+    @Setup(Level.Invocation)
+    public void setUp(EngineBenchmark benchmark) {
+      benchmark.restore();
+      tetris = benchmark.tetris;
+    }
+  }
+
+  @Benchmark
+  public void reset() {
+    restore();
+  }
+
+  @Benchmark
+  public boolean hasConflict() {
+    return tetris.hasConflict(tetris.activePiece);
+  }
+
+  @Benchmark
+  public boolean hasConflictOffset() {
+    Piece piece = tetris.activePiece;
+    return tetris.hasConflict(piece.type, piece.rowOffset + 1,
+        piece.colOffset);
+  }
+
+  @Benchmark
+  public boolean moveLeftRight(Restored restored) {
+    // a piece at the left wall only moves right, which the reset undoes
+    return restored.tetris.move(Direction.LEFT)
+      & restored.tetris.move(Direction.RIGHT);
+  }
+
+  @Benchmark
+  public void rotate(Restored restored) {
+    restored.tetris.rotate();
+  }
+
+  @Benchmark
+  public int drop() {
+    int row = tetris.activePiece.rowOffset;
+    tetris.drop();
+    int landed = tetris.activePiece.rowOffset;
+    tetris.activePiece.rowOffset = row;
+    return landed;
+  }
+
+  @Benchmark
+  public int landingRow() {
+    return tetris.landingRow();
+  }
+
+  @Benchmark
+  public int consolidateAndClear(Restored restored) {
+    restored.tetris.drop();
+    restored.tetris.consolidate();
+    return restored.tetris.clearLines();
+  }
+
+  @Benchmark
+  public boolean hold(Restored restored) {
+    restored.tetris.hold();
+    return restored.tetris.usedHold;
+  }
+
+  @Benchmark
+  public Tetris snapshotRoundTrip() throws IOException {
+    snapshot.clear();
+    tetris.writeState(snapshot);
+    snapshot.flip();
+    return new Tetris(snapshot);
+  }
+
+  @Benchmark
+  public String toStringBoard() {
+    return tetris.toString();
+  }
+
+  @Benchmark
+  public String toStringSnapshot() {
+    return tetris.snapshot().toString();
+  }
+
+  /**
+   * runs all benchmarks with the gc profiler, which reports the
+   * allocation rate of every operation
+   * @param args: passed on to the JMH command line, may be empty
+   */
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .include(EngineBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+    new Runner(options).run();
+  }
+}
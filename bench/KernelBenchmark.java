@@ -0,0 +1,114 @@
+/**
+ *  Contains JMH benchmarks comparing the scalar and Vector API board
+ *  kernels.
+ *
+ *  The vector kernels need the jdk.incubator.vector module, which the
+ *  forked JVM adds, and vector/VectorKernels.java compiled into the same
+ *  directory, for example:
+ *
+ *    javac -cp jmh-core.jar:jmh-generator-annprocess.jar -d out \
+ *        *.java bench/KernelBenchmark.java
+ *    javac --add-modules jdk.incubator.vector -cp out -d out \
+ *        vector/VectorKernels.java
+ *    java -cp jmh-core.jar:out KernelBenchmark
+ * */
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/** The KernelBenchmark class runs every board kernel with both
+ *  implementations on boards of the sizes games are played on: the
+ *  standard grid, a wide grid of Tetris.MAX_COLS columns and a tall one
+ *  of the same width. The bottom half of each board is filled with one
+ *  gap per row, so no row is full and the full row scan reads the whole
+ *  board, and the pieces drop from the top of the board onto the stack.
+ *  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+  // standard: Tetris.ROWS by Tetris.COLS, wide: 40 by Tetris.MAX_COLS,
+  // tall: 10000 by Tetris.MAX_COLS
+  @Param({"standard", "wide", "tall"})
+  public String boardType;
+
+  @Param({"scalar", "vector"})
+  public String kernel;
+
+  private BoardKernels kernels;
+  private long[] board;
+  private long fullRow;
+
+  // pieces dropped by drop, one of every shape
+  private PieceType[] types;
+  private int[] cols;
+
+  /**
+   * Builds the board for the current boardType and loads the kernels
+   ***********************************************************/
+  @Setup(Level.Trial)
+  public void setUp() {
+    kernels = kernel.equals("scalar") ? new BoardKernels()
+      : BoardKernels.vector();
+    if (kernels == null)
+      throw new IllegalStateException("VectorKernels is not available");
+
+    int rows, width;
+    switch (boardType) {
+      case "wide": rows = 40;
+                   width = Tetris.MAX_COLS;
+                   break;
+      case "tall": rows = 10000;
+                   width = Tetris.MAX_COLS;
+                   break;
+      default    : rows = Tetris.ROWS;
+                   width = Tetris.COLS;
+    }
+    fullRow = Tetris.fullRow(width);
+    board   = new long[rows];
+    Randomizer randomizer = new Randomizer(7);
+    for (int i = rows / 2 ; i < rows ; i++)
+      board[i] = fullRow
+        & ~(1L << (int) ((randomizer.nextLong() >>> 1) % width));
+
+    types = new PieceType[Piece.possibleShapes.length];
+    cols  = new int[types.length];
+    for (int s = 0 ; s < types.length ; s++) {
+      types[s] = PieceType.of(s, 0);
+      cols[s]  = (int) ((randomizer.nextLong() >>> 1)
+          % (width - types[s].maxCol)) - types[s].minCol;
+    }
+  }
+
+  @Benchmark
+  public int lastFullRow() {
+    return kernels.lastFullRow(board, 0, board.length - 1, fullRow);
+  }
+
+  @Benchmark
+  public int drop() {
+    int rows = 0;
+    for (int s = 0 ; s < types.length ; s++)
+      rows += kernels.dropRow(board, types[s], -types[s].minRow, cols[s]);
+    return rows;
+  }
+
+  @Benchmark
+  public int cellCount() {
+    return kernels.cellCount(board, 0, board.length);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .include(KernelBenchmark.class.getSimpleName())
+      .build();
+    new Runner(options).run();
+  }
+}
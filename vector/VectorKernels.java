@@ -0,0 +1,93 @@
+/**
+ *  Contains the board kernels written with the Vector API.
+ *
+ *  The class sits in the default package next to the engine but is kept
+ *  out of its sources, since it needs the jdk.incubator.vector module to
+ *  compile. Compile it after the engine and add the module when running,
+ *  for example:
+ *
+ *    javac -d out *.java
+ *    javac --add-modules jdk.incubator.vector -cp out -d out \
+ *        vector/VectorKernels.java
+ *    java --add-modules jdk.incubator.vector -cp out Simulator
+ *
+ *  Without the class, or without the module, BoardKernels.DEFAULT falls
+ *  back to the scalar kernels.
+ * */
+
+import jdk.incubator.vector.*;
+
+/** The VectorKernels class runs the loops of BoardKernels over a vector
+ *  of rows at a time, in the widest shape the CPU supports: four rows
+ *  per instruction with AVX2, eight with AVX-512. The rows left over
+ *  after the last whole vector are done by the scalar code.
+ *
+ *  lastFullRow compares a vector of rows with the full row, from the
+ *  bottom up. dropRow tests a vector of row offsets at once: for each
+ *  row of the piece it loads the board rows under that row at every
+ *  offset and ANDs them with the row of the piece, so the first lane
+ *  with a cell set is the first offset with a conflict. cellCount adds
+ *  up the bit counts of a vector of rows, counted with shifts and masks
+ *  since the Vector API of JDK 17 has no lanewise bit count.
+ *  */
+public class VectorKernels extends BoardKernels {
+
+  private static final VectorSpecies<Long> SPECIES =
+    LongVector.SPECIES_PREFERRED;
+
+  // lanes of a vector
+  private static final int LANES = SPECIES.length();
+
+  @Override
+  public String name() {
+    return "vector" + SPECIES.vectorBitSize();
+  }
+
+  @Override
+  public int lastFullRow(long[] board, int first, int last, long fullRow) {
+    int lo = last - LANES + 1;
+    for ( ; lo >= first ; lo -= LANES) {
+      VectorMask<Long> full = LongVector.fromArray(SPECIES, board, lo)
+        .compare(VectorOperators.EQ, fullRow);
+      if (full.anyTrue())
+        return lo + full.lastTrue();
+    }
+    return super.lastFullRow(board, first, lo + LANES - 1, fullRow);
+  }
+
+  @Override
+  public int dropRow(long[] board, PieceType type, int rowOffset,
+      int colOffset) {
+    int last = board.length - 1 - type.maxRow;
+    int row  = rowOffset + 1;
+    for ( ; row + LANES - 1 <= last ; row += LANES) {
+      LongVector hit = LongVector.zero(SPECIES);
+      for (int i = type.minRow ; i <= type.maxRow ; i++)
+        hit = hit.or(LongVector.fromArray(SPECIES, board, row + i)
+            .and(Tetris.shiftRow(type.rowMask(i), colOffset)));
+      VectorMask<Long> conflict = hit.compare(VectorOperators.NE, 0);
+      if (conflict.anyTrue())
+        return row + conflict.firstTrue() - 1;
+    }
+    return super.dropRow(board, type, row - 1, colOffset);
+  }
+
+  @Override
+  public int cellCount(long[] board, int from, int to) {
+    LongVector cells = LongVector.zero(SPECIES);
+    int i = from;
+    for ( ; i + LANES <= to ; i += LANES) {
+      LongVector x = LongVector.fromArray(SPECIES, board, i);
+      x = x.sub(x.lanewise(VectorOperators.LSHR, 1)
+          .and(0x5555555555555555L));
+      x = x.and(0x3333333333333333L).add(x.lanewise(VectorOperators.LSHR, 2)
+          .and(0x3333333333333333L));
+      x = x.add(x.lanewise(VectorOperators.LSHR, 4))
+        .and(0x0f0f0f0f0f0f0f0fL);
+      cells = cells.add(x.mul(0x0101010101010101L)
+          .lanewise(VectorOperators.LSHR, 56));
+    }
+    return (int) cells.reduceLanes(VectorOperators.ADD)
+      + super.cellCount(board, i, to);
+  }
+}